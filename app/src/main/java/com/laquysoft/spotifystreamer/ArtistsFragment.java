@@ -7,7 +7,10 @@ package com.laquysoft.spotifystreamer;
 import android.content.Intent;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.Fragment;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -16,14 +19,16 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.Toast;
 
-import com.laquysoft.spotifystreamer.components.DaggerSpotifyServiceComponent;
+import com.laquysoft.spotifystreamer.common.AppExecutors;
+import com.laquysoft.spotifystreamer.common.PauseOnFlingScrollListener;
 import com.laquysoft.spotifystreamer.components.SpotifyServiceComponent;
+import com.laquysoft.spotifystreamer.data.ArtistIndex;
+import com.laquysoft.spotifystreamer.data.CatalogStore;
+import com.laquysoft.spotifystreamer.data.SpotifyRepository;
+import com.laquysoft.spotifystreamer.data.TopTracksPrefetcher;
 import com.laquysoft.spotifystreamer.model.ParcelableSpotifyObject;
-import com.laquysoft.spotifystreamer.modules.SpotifyServiceModule;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -32,9 +37,6 @@ import javax.inject.Inject;
 
 import butterknife.ButterKnife;
 import butterknife.InjectView;
-import kaaes.spotify.webapi.android.SpotifyService;
-import kaaes.spotify.webapi.android.models.Artist;
-import kaaes.spotify.webapi.android.models.ArtistsPager;
 import retrofit.RetrofitError;
 
 /**
@@ -44,6 +46,13 @@ public class ArtistsFragment extends Fragment {
 
     private final String LOG_TAG = ArtistsFragment.class.getSimpleName();
 
+    //Wait for the user to stop typing before hitting the network
+    private static final long SEARCH_DEBOUNCE_MS = 300;
+    private static final int MIN_INCREMENTAL_QUERY_LENGTH = 2;
+    //Incremental results the user keeps looking at this long are treated as submitted
+    private static final long SEARCH_SETTLE_MS = 1500;
+    private static final int MAX_LOCAL_SUGGESTIONS = 20;
+
     private SpotifyObjectAdapter mArtistsAdapter;
 
     private ArrayList<ParcelableSpotifyObject> artistArrayList;
@@ -53,7 +62,36 @@ public class ArtistsFragment extends Fragment {
 
 
     @Inject
-    SpotifyService spotifyService;
+    SpotifyRepository spotifyRepository;
+
+    @Inject
+    ArtistIndex artistIndex;
+
+    @Inject
+    TopTracksPrefetcher topTracksPrefetcher;
+
+    private final Handler mSearchHandler = new Handler();
+    private String mPendingQuery;
+    private String mCurrentQuery;
+    private FetchArtistsTask mArtistsTask;
+    private int mLatestSearchId;
+    private String mUnsettledQuery;
+    private List<ParcelableSpotifyObject> mUnsettledResults;
+    private String mUnsettledCountry;
+
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            updateArtists(mPendingQuery, true);
+        }
+    };
+
+    private final Runnable mSettleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onSearchSettled(mUnsettledQuery, mUnsettledCountry, mUnsettledResults);
+        }
+    };
 
     /**
      * A callback interface that all activities containing this fragment must
@@ -75,9 +113,12 @@ public class ArtistsFragment extends Fragment {
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        SpotifyServiceComponent component = DaggerSpotifyServiceComponent.builder().spotifyServiceModule(new SpotifyServiceModule()).build();
+        SpotifyServiceComponent component = SpotifyStreamerApplication.get(getActivity())
+                .getSpotifyServiceComponent();
 
-        spotifyService = component.provideSpotifyService();
+        spotifyRepository = component.provideSpotifyRepository();
+        artistIndex = component.provideArtistIndex();
+        topTracksPrefetcher = component.provideTopTracksPrefetcher();
         Intent intent = getActivity().getIntent();
 
         if (savedInstanceState != null) {
@@ -86,7 +127,7 @@ public class ArtistsFragment extends Fragment {
             artistArrayList = new ArrayList<ParcelableSpotifyObject>();
         }
 
-        mArtistsAdapter = new SpotifyObjectAdapter(getActivity(), R.layout.list_item_artist, artistArrayList,
+        mArtistsAdapter = new SpotifyObjectAdapter(getActivity(), artistArrayList,
                 SpotifyObjectAdapter.VIEW_TYPE_ARTIST);
 
         // Add this line in order for this fragment to handle menu events.
@@ -110,24 +151,45 @@ public class ArtistsFragment extends Fragment {
                 new SearchView.OnQueryTextListener() {
                     @Override
                     public boolean onQueryTextSubmit(String query) {
-                        updateArtists(query);
+                        mSearchHandler.removeCallbacks(mSearchRunnable);
+                        updateArtists(query, false);
 
                         return true;
                     }
 
                     @Override
                     public boolean onQueryTextChange(String newText) {
-                        return false;
+                        if (!Utility.isSearchAsYouTypeEnabled(getActivity())) {
+                            return false;
+                        }
+
+                        mSearchHandler.removeCallbacks(mSearchRunnable);
+                        mSearchHandler.removeCallbacks(mSettleRunnable);
+                        String query = newText.trim();
+                        showLocalSuggestions(query);
+                        if (query.length() < MIN_INCREMENTAL_QUERY_LENGTH) {
+                            //Results for the longer query would replace the suggestions
+                            cancelSearch();
+                            return true;
+                        }
+
+                        mPendingQuery = query;
+                        mSearchHandler.postDelayed(mSearchRunnable, SEARCH_DEBOUNCE_MS);
+                        return true;
                     }
                 });
 
-        // Get a reference to the ListView, and attach this adapter to it.
-        ListView listView = (ListView) rootView.findViewById(R.id.listview_artists);
-        listView.setAdapter(mArtistsAdapter);
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Get a reference to the RecyclerView, and attach this adapter to it.
+        RecyclerView recyclerView = (RecyclerView) rootView.findViewById(R.id.listview_artists);
+        recyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        recyclerView.setHasFixedSize(true);
+        recyclerView.addOnScrollListener(new PauseOnFlingScrollListener(getActivity(),
+                SpotifyObjectAdapter.THUMBNAIL_TAG));
+        recyclerView.setAdapter(mArtistsAdapter);
+        mArtistsAdapter.setOnItemClickListener(new SpotifyObjectAdapter.OnItemClickListener() {
 
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
+            public void onItemClick(int position) {
                 String spotifyId = mArtistsAdapter.getItem(position).mFatherName;
                 String artistName = mArtistsAdapter.getItem(position).mName;
                 Log.i(LOG_TAG, "Click on Artist ID " + spotifyId);
@@ -139,9 +201,62 @@ public class ArtistsFragment extends Fragment {
         return rootView;
     }
 
-    private void updateArtists(String query) {
-        FetchArtistsTask artistsTask = new FetchArtistsTask();
-        artistsTask.execute(query);
+    /**
+     * Shows the already known artists matching the query while the search is on the network
+     */
+    private void showLocalSuggestions(String query) {
+        List<ParcelableSpotifyObject> suggestions = artistIndex.findByPrefix(query, MAX_LOCAL_SUGGESTIONS);
+        if (suggestions.isEmpty()) {
+            return;
+        }
+        mArtistsAdapter.replaceAll(suggestions);
+    }
+
+    private void updateArtists(String query, boolean incremental) {
+        boolean running = mArtistsTask != null
+                && mArtistsTask.getStatus() != AsyncTask.Status.FINISHED;
+        if (running && query.equals(mCurrentQuery)) {
+            //Same search already on its way, submitting it makes it final
+            if (!incremental) {
+                mArtistsTask.mIncremental = false;
+            }
+            return;
+        }
+
+        //A newer query supersedes whatever is still in flight
+        if (running) {
+            mArtistsTask.cancel(true);
+        }
+        mSearchHandler.removeCallbacks(mSettleRunnable);
+        topTracksPrefetcher.cancel();
+
+        mCurrentQuery = query;
+        mLatestSearchId++;
+        mArtistsTask = new FetchArtistsTask(mLatestSearchId, incremental);
+        mArtistsTask.executeOnExecutor(AppExecutors.network(), query,
+                Utility.getPreferredCountry(getActivity()));
+    }
+
+    /**
+     * Drops the search in flight, its results are not wanted anymore
+     */
+    private void cancelSearch() {
+        if (mArtistsTask != null) {
+            mArtistsTask.cancel(true);
+            mArtistsTask = null;
+        }
+        mSearchHandler.removeCallbacks(mSettleRunnable);
+        mCurrentQuery = null;
+        mLatestSearchId++;
+    }
+
+    /**
+     * Prefetches for and keeps the results the user submitted or stopped typing at, not
+     * every intermediate query
+     */
+    private void onSearchSettled(String query, String country, List<ParcelableSpotifyObject> artists) {
+        topTracksPrefetcher.prefetch(artists, country);
+        spotifyRepository.saveSearch(query, country, artists);
     }
 
     @Override
@@ -149,21 +264,32 @@ public class ArtistsFragment extends Fragment {
         super.onStart();
     }
 
-    public class FetchArtistsTask extends AsyncTask<String, Void, List<Artist>> {
+    public class FetchArtistsTask extends AsyncTask<String, Void, List<ParcelableSpotifyObject>> {
 
         private final String LOG_TAG = FetchArtistsTask.class.getSimpleName();
         private RetrofitError retrofitError;
 
+        private final int mSearchId;
+        private boolean mIncremental;
+        private String mQuery;
+        private String mCountry;
+
+        public FetchArtistsTask(int searchId, boolean incremental) {
+            mSearchId = searchId;
+            mIncremental = incremental;
+        }
+
         @Override
-        protected List<Artist> doInBackground(String... params) {
+        protected List<ParcelableSpotifyObject> doInBackground(String... params) {
 
-            if (params.length == 0) {
+            if (params.length < 2) {
                 return null;
             }
 
+            mQuery = params[0];
+            mCountry = params[1];
             try {
-                ArtistsPager artistsPager = spotifyService.searchArtists(params[0]);
-                return artistsPager.artists.items;
+                return spotifyRepository.searchArtists(mQuery, mCountry);
 
             } catch (RetrofitError error) {
                 retrofitError = error;
@@ -172,38 +298,38 @@ public class ArtistsFragment extends Fragment {
         }
 
         @Override
-        protected void onPostExecute(List<Artist> result) {
+        protected void onPostExecute(List<ParcelableSpotifyObject> result) {
+            if (mSearchId != mLatestSearchId || getActivity() == null) {
+                //Out of order response for a query the user already moved past
+                return;
+            }
+
             if (result != null) {
                 if (result
                         .isEmpty()) {
+                    if (mIncremental) {
+                        return;
+                    }
                     Toast.makeText(getActivity(), "Artist not found, please refine your search", Toast.LENGTH_LONG).show();
                 } else {
-                    mArtistsAdapter.clear();
-                    String smallImageUrl = "";
-                    String bigImageUrl = "";
-                    for (Artist track : result) {
-                        if (!track.images.isEmpty()) {
-                            smallImageUrl = track.images.get(0).url;
-                        }
-                        if (track.images.size() > 1) {
-                            bigImageUrl = track.images.get(1).url;
-                        }
-                        StringBuilder builder = new StringBuilder();
-
-                        ParcelableSpotifyObject parcelableSpotifyObject = new ParcelableSpotifyObject(track.name,
-                                track.id,
-                                "",
-                                smallImageUrl,
-                                bigImageUrl,
-                                track.uri);
-                        mArtistsAdapter.add(parcelableSpotifyObject);
-
-                    }
+                    mArtistsAdapter.replaceAll(result);
                     // New data is back from the server.  Hooray!
+                    //The adapter swaps its list once the diff is done, use the results directly
+                    artistIndex.addAll(result);
+                    if (mIncremental) {
+                        mUnsettledQuery = mQuery;
+                        mUnsettledResults = result;
+                        mUnsettledCountry = mCountry;
+                        mSearchHandler.postDelayed(mSettleRunnable, SEARCH_SETTLE_MS);
+                    } else {
+                        onSearchSettled(mQuery, mCountry, result);
+                    }
                 }
 
             } else {
-                if (retrofitError != null) {
+                if (mIncremental) {
+                    Log.d(LOG_TAG, "Incremental search failed for " + mCurrentQuery);
+                } else if (retrofitError != null) {
                     Toast.makeText(getActivity(), "Ooops " + retrofitError.getLocalizedMessage(), Toast.LENGTH_LONG).show();
                 } else {
                     Toast.makeText(getActivity(), "Artist not found, please refine your search", Toast.LENGTH_LONG).show();
@@ -227,11 +353,44 @@ public class ArtistsFragment extends Fragment {
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
         if (savedInstanceState != null && savedInstanceState.containsKey("Query")) {
-            updateArtists(savedInstanceState.getString("Query"));
+            updateArtists(savedInstanceState.getString("Query"), false);
+        } else if (savedInstanceState == null) {
+            //Cold start, bring back the last results even without a connection
+            new LoadLastSearchTask().executeOnExecutor(AppExecutors.disk());
+        }
+    }
+
+    public class LoadLastSearchTask extends AsyncTask<Void, Void, CatalogStore.SavedSearch> {
+
+        @Override
+        protected CatalogStore.SavedSearch doInBackground(Void... params) {
+            return spotifyRepository.loadLastSearch();
+        }
+
+        @Override
+        protected void onPostExecute(CatalogStore.SavedSearch savedSearch) {
+            if (savedSearch == null || getActivity() == null
+                    || mLatestSearchId != 0 || mArtistsAdapter.getItemCount() > 0) {
+                //The user already started something newer
+                return;
+            }
+            Log.d(LOG_TAG, "Restoring stored results for " + savedSearch.query);
+            mArtistsAdapter.replaceAll(savedSearch.artists);
+            artistIndex.addAll(savedSearch.artists);
         }
     }
 
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        mSearchHandler.removeCallbacks(mSettleRunnable);
+        if (mArtistsTask != null) {
+            mArtistsTask.cancel(true);
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // Handle action bar item clicks here. The action bar will
@@ -96,7 +96,7 @@ public class MainActivity extends AppCompatActivity implements ArtistsFragment.C
     @Override
     public void onItemSelected(ArrayList<ParcelableSpotifyObject> selectedTrack, int idx) {
 
-        MediaPlayerService.setTracks(this, selectedTrack);
+        //The player hands the tracks to the service once bound
 
         FragmentManager fragmentManager = getSupportFragmentManager();
 
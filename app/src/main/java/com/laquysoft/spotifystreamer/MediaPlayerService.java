@@ -9,26 +9,40 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
-import android.os.AsyncTask;
+import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 import android.view.View;
 import android.widget.RemoteViews;
 
+import com.laquysoft.spotifystreamer.common.ImageSelector;
 import com.laquysoft.spotifystreamer.common.MainThreadBus;
 import com.laquysoft.spotifystreamer.components.DaggerEventBusComponent;
 import com.laquysoft.spotifystreamer.components.EventBusComponent;
+import com.laquysoft.spotifystreamer.components.SpotifyServiceComponent;
+import com.laquysoft.spotifystreamer.events.PlayerVisibilityEvent;
 import com.laquysoft.spotifystreamer.events.TrackLoadedEvent;
 import com.laquysoft.spotifystreamer.events.TrackPlayingEvent;
 import com.laquysoft.spotifystreamer.model.ParcelableSpotifyObject;
 import com.laquysoft.spotifystreamer.modules.EventBusModule;
+import com.laquysoft.spotifystreamer.playback.PlayQueue;
+import com.laquysoft.spotifystreamer.playback.PlaybackController;
+import com.laquysoft.spotifystreamer.playback.PlaybackSession;
+import com.laquysoft.spotifystreamer.playback.PreviewCache;
+import com.squareup.otto.Subscribe;
 import com.squareup.picasso.Picasso;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.inject.Inject;
 
@@ -41,29 +55,51 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnPrepare
 
     public static final String LOG_TAG = MediaPlayerService.class.getSimpleName();
 
-    //Available Actions
-    public static final String ACTION_PLAY_TRACK = "action_play_track";
+    //Available Actions, from the notification. Clients in the app bind and use PlaybackController.
     public static final String ACTION_PAUSE_TRACK = "action_pause_track";
     public static final String ACTION_RESUME_TRACK = "action_resume_track";
     public static final String ACTION_PLAY_PREVIOUS_TRACK = "action_previous_track";
     public static final String ACTION_PLAY_NEXT_TRACK = "action_next_track";
-    public static final String ACTION_SET_TRACKS = "action_add_tracks";
-    public static final String ACTION_SET_TRACK_PROGRESS_TO = "action_set_track_progress_to";
-    public static final String ACTION_BROADCAST_CURRENT_TRACK = "action_broadcast_current_track";
     public static final int NOTIFICATION_ID = 3000;
 
     //Constants
-    private static final String TRACKS_LIST = "tracks_list";
-    private static final String TRACK_ID = "track_id";
-    private static final String TRACK_PROGRESS = "track_progress";
+    //Sent by the service to itself, keeps it alive after the clients unbind
+    private static final String ACTION_START = "action_start";
     private static final String PREF_SHOW_PLAYBACK_CONTROLS_IN_LOCKSCREEN = "pref_show_playback_controls_in_lockscreen";
+    private static final int[] READ_AHEAD_OFFSETS = {1, 2, -1};
+    private static final int[] ART_PREFETCH_OFFSETS = {1, -1};
+    private static final long PROGRESS_INTERVAL_MS = 250;
+    private static final long SESSION_SAVE_INTERVAL_MS = 5000;
 
     //Variables
     ParcelableSpotifyObject mCurrentTrack;
-    int mCurrentTrackIndex;
     MediaPlayer mMediaPlayer;
-    BroadcastTrackProgressTask mBroadcastTrackProgressTask;
-    ArrayList<ParcelableSpotifyObject> mTracksList;
+    boolean mMediaPlayerPrepared;
+    //Player for the following track, prepared in advance and chained for gapless playback
+    MediaPlayer mNextMediaPlayer;
+    boolean mNextMediaPlayerPrepared;
+    int mNextTrackIndex = PlayQueue.NO_POSITION;
+    //Tracks that failed to start in a row, auto-advance gives up once every track did
+    int mConsecutiveFailures;
+    //Progress is only reported while someone is looking at it
+    boolean mPlayerUiVisible = true;
+    final TrackPlayingEvent mTrackPlayingEvent = new TrackPlayingEvent(null, 0);
+    final PlayQueue mPlayQueue = new PlayQueue();
+    PreviewCache mPreviewCache;
+    ImageSelector mImageSelector;
+    //Survives process death, restored lazily when started again without tracks
+    PlaybackSession mPlaybackSession;
+    boolean mRestoringSession;
+    boolean mResumeAfterRestore;
+    boolean mAnnounceAfterRestore;
+    int mPendingSeekMs;
+    //Bound clients, told about every state change
+    final ArrayList<PlaybackController.Listener> mListeners = new ArrayList<>();
+    final LocalBinder mBinder = new LocalBinder();
+    boolean mStarted;
+    boolean mBound;
+    //A track is starting, playing or paused: its notification can still control it
+    boolean mPlaybackActive;
 
     @Inject
     MainThreadBus bus;
@@ -80,230 +116,583 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnPrepare
     }
 
     /**
-     * StartService Helpers
+     * Notification Intents
      */
-    public static void setTracks(Context context, ArrayList<ParcelableSpotifyObject> tracksList) {
-        Intent serviceIntent = new Intent(context, MediaPlayerService.class);
-        serviceIntent.setAction(ACTION_SET_TRACKS);
-        serviceIntent.putExtra(TRACKS_LIST, tracksList);
-        context.startService(serviceIntent);
-    }
-
-    public static void playTrack(Context context, int trackId) {
-        Intent serviceIntent = new Intent(context, MediaPlayerService.class);
-        serviceIntent.setAction(ACTION_PLAY_TRACK);
-        serviceIntent.putExtra(TRACK_ID, trackId);
-        context.startService(serviceIntent);
-    }
-
-    public static void pauseTrack(Context context) {
-        context.startService(getPauseTrackIntent(context));
-    }
-
     public static Intent getPauseTrackIntent(Context context) {
         Intent serviceIntent = new Intent(context, MediaPlayerService.class);
         serviceIntent.setAction(ACTION_PAUSE_TRACK);
         return serviceIntent;
     }
 
-    public static void resumeTrack(Context context) {
-        context.startService(getResumeTrackIntent(context));
-    }
-
     public static Intent getResumeTrackIntent(Context context) {
         Intent serviceIntent = new Intent(context, MediaPlayerService.class);
         serviceIntent.setAction(ACTION_RESUME_TRACK);
         return serviceIntent;
     }
 
-    public static void playNextTrack(Context context) {
-        context.startService(getPlayNextTrackIntent(context));
-    }
-
     public static Intent getPlayNextTrackIntent(Context context) {
         Intent serviceIntent = new Intent(context, MediaPlayerService.class);
         serviceIntent.setAction(ACTION_PLAY_NEXT_TRACK);
         return serviceIntent;
     }
 
-    public static void playPreviousTrack(Context context) {
-        context.startService(getPlayPreviousTrackIntent(context));
-    }
-
     public static Intent getPlayPreviousTrackIntent(Context context) {
         Intent serviceIntent = new Intent(context, MediaPlayerService.class);
         serviceIntent.setAction(ACTION_PLAY_PREVIOUS_TRACK);
         return serviceIntent;
     }
 
-    public static void setTrackProgressTo(Context context, int progress) {
-        Intent serviceIntent = new Intent(context, MediaPlayerService.class);
-        serviceIntent.setAction(ACTION_SET_TRACK_PROGRESS_TO);
-        serviceIntent.putExtra(TRACK_PROGRESS, progress);
-        context.startService(serviceIntent);
+    /**
+     * Binder interface: bound clients cast it to PlaybackController
+     */
+    @Override
+    public IBinder onBind(Intent intent) {
+        mBound = true;
+        return mBinder;
     }
 
-    public static void broadcastCurrentTrack(Context context) {
-        Intent serviceIntent = new Intent(context, MediaPlayerService.class);
-        serviceIntent.setAction(ACTION_BROADCAST_CURRENT_TRACK);
-        context.startService(serviceIntent);
+    @Override
+    public void onRebind(Intent intent) {
+        mBound = true;
     }
 
-    /**
-     * Binder interface
-     */
     @Override
-    public IBinder onBind(Intent intent) {
-        throw new UnsupportedOperationException("Not available");
+    public boolean onUnbind(Intent intent) {
+        mBound = false;
+        stopIfIdle();
+        //Get onRebind, so the next client is tracked too
+        return true;
+    }
+
+    public class LocalBinder extends Binder implements PlaybackController {
+
+        @Override
+        public void setTracks(List<ParcelableSpotifyObject> tracks) {
+            MediaPlayerService.this.setTracks(tracks);
+        }
+
+        @Override
+        public void playTrack(int position) {
+            ensureStarted();
+            MediaPlayerService.this.playTrack(position);
+        }
+
+        @Override
+        public void pause() {
+            pauseTrack();
+        }
+
+        @Override
+        public void resume() {
+            ensureStarted();
+            resumeOrRestoreTrack();
+        }
+
+        @Override
+        public void playNext() {
+            playNextTrack();
+        }
+
+        @Override
+        public void playPrevious() {
+            playPreviousTrack();
+        }
+
+        @Override
+        public void seekTo(int positionMs) {
+            setTrackProgressTo(positionMs);
+        }
+
+        @Override
+        public void setPlayMode(int playMode) {
+            MediaPlayerService.this.setPlayMode(playMode);
+        }
+
+        @Override
+        public void broadcastCurrentTrack() {
+            MediaPlayerService.this.broadcastCurrentTrack();
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return MediaPlayerService.this.isPlaying();
+        }
+
+        @Override
+        public void addListener(Listener listener) {
+            mListeners.add(listener);
+            listener.onPlaybackStateChanged(mCurrentTrack, MediaPlayerService.this.isPlaying());
+        }
+
+        @Override
+        public void removeListener(Listener listener) {
+            mListeners.remove(listener);
+        }
     }
 
 
     /**
      * Custom methods
      */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        SpotifyServiceComponent component = SpotifyStreamerApplication.get(this).getSpotifyServiceComponent();
+        mPreviewCache = new PreviewCache(this, component.provideOkHttpClient());
+        mImageSelector = component.provideImageSelector();
+        mPlayQueue.setMode(Utility.getPlayMode(this));
+        mPlaybackSession = new PlaybackSession(this);
+    }
+
     @Override
     public void onDestroy() {
-        super.onDestroy();
+        saveSessionPosition();
+        stopProgressUpdates();
+        stopSessionSaves();
+        //Both players hold native decoders until released
+        releaseNextPlayer();
+        stopPlayback();
+        //Nothing is loaded anymore, new subscribers must not be told otherwise
+        bus.clearRetained(TrackLoadedEvent.class);
+        bus.unregister(this);
 
         //Cancel notification
         NotificationManager notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
         notificationManager.cancel(NOTIFICATION_ID);
+
+        super.onDestroy();
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
 
-        //Set tracks
-        if (intent.getAction().equals(ACTION_SET_TRACKS)) {
-            setTracks(intent);
-        }
+        mStarted = true;
 
-        //Previous track
-        if (intent.getAction().equals(ACTION_PLAY_PREVIOUS_TRACK)) {
-            playPreviousTrack();
+        //Restarted by the system after the process was killed.
+        //Nothing is playing, so the snapshot is only loaded: no event, no notification.
+        if (intent == null || intent.getAction() == null) {
+            restoreSession(false, false);
+            return START_STICKY;
         }
 
-        //Play track
-        if (intent.getAction().equals(ACTION_PLAY_TRACK)) {
-            int trackId = intent.getIntExtra(TRACK_ID, -1);
-            playTrack(trackId);
+        switch (intent.getAction()) {
+            case ACTION_START:
+                //The client that started it is about to play
+                break;
+            case ACTION_PLAY_PREVIOUS_TRACK:
+                playPreviousTrack();
+                break;
+            case ACTION_PAUSE_TRACK:
+                pauseTrack();
+                break;
+            case ACTION_RESUME_TRACK:
+                resumeOrRestoreTrack();
+                break;
+            case ACTION_PLAY_NEXT_TRACK:
+                playNextTrack();
+                break;
+            default:
+                Log.w(LOG_TAG, "Unknown action " + intent.getAction());
+                break;
         }
 
-        //Pause track
-        if (intent.getAction().equals(ACTION_PAUSE_TRACK)) {
-            pauseTrack();
-        }
+        return START_STICKY;
+    }
 
-        //Resume track
-        if (intent.getAction().equals(ACTION_RESUME_TRACK)) {
-            resumeTrack();
-        }
+    /**
+     * Stops the started service once playback is over and no client is bound, instead of
+     * lingering as a sticky service
+     */
+    private void stopIfIdle() {
+        if (mBound || mPlaybackActive || mRestoringSession)
+            return;
 
-        //Next track
-        if (intent.getAction().equals(ACTION_PLAY_NEXT_TRACK)) {
-            playNextTrack();
-        }
+        stopSelf();
+    }
 
-        //Set track progress
-        if (intent.getAction().equals(ACTION_SET_TRACK_PROGRESS_TO)) {
-            int progress = intent.getIntExtra(TRACK_PROGRESS, 0);
-            setTrackProgressTo(progress);
-        }
+    /**
+     * Playback must outlive the bound clients, so the service also starts itself
+     */
+    private void ensureStarted() {
+        if (!mStarted)
+            startService(new Intent(this, MediaPlayerService.class).setAction(ACTION_START));
+    }
 
-        //Request current track broadcast
-        if (intent.getAction().equals(ACTION_BROADCAST_CURRENT_TRACK)) {
-            if (mCurrentTrack != null)
-                broadcastTrackToBePlayed();
-        }
+    private void broadcastCurrentTrack() {
+        if (mCurrentTrack != null)
+            broadcastTrackToBePlayed();
+        else
+            restoreSession(false, true);
+    }
 
-        return START_NOT_STICKY;
+    private boolean isPlaying() {
+        return mMediaPlayer != null && mMediaPlayerPrepared && mMediaPlayer.isPlaying();
     }
 
+    /**
+     * Session snapshot. Resume plays the restored track, announce broadcasts it and shows
+     * its notification, otherwise it is restored silently.
+     */
+    private void restoreSession(boolean resume, boolean announce) {
+        mResumeAfterRestore |= resume;
+        mAnnounceAfterRestore |= announce;
+        if (mRestoringSession || !mPlayQueue.isEmpty())
+            return;
 
-    private void setTracks(Intent data) {
+        mRestoringSession = true;
+        mPlaybackSession.load(new PlaybackSession.Callback() {
+            @Override
+            public void onSessionLoaded(PlaybackSession.Snapshot snapshot) {
+                mRestoringSession = false;
+                boolean resume = mResumeAfterRestore;
+                boolean announce = mAnnounceAfterRestore;
+                mResumeAfterRestore = false;
+                mAnnounceAfterRestore = false;
+
+                applySnapshot(snapshot, resume, announce);
+                //Restored quietly after a restart, or nothing to restore
+                stopIfIdle();
+            }
+        });
+    }
+
+    private void applySnapshot(PlaybackSession.Snapshot snapshot, boolean resume, boolean announce) {
+        //Tracks set while loading are newer than the snapshot
+        if (snapshot == null || !mPlayQueue.isEmpty())
+            return;
 
-        mTracksList = data.getParcelableArrayListExtra(TRACKS_LIST);
+        mPlayQueue.setMode(snapshot.playMode);
+        mPlayQueue.setTracks(snapshot.tracks);
+        mCurrentTrack = mPlayQueue.moveTo(snapshot.queuePosition);
+        if (mCurrentTrack == null)
+            return;
+
+        Log.d(LOG_TAG, "Restored session at " + mCurrentTrack.mName);
+        mPendingSeekMs = snapshot.playbackPositionMs;
+        if (resume)
+            resumeOrRestoreTrack();
+        else if (announce)
+            broadcastTrackToBePlayed();
+    }
+
+    private void saveSessionPosition() {
+        int queuePosition = mPlayQueue.getCurrentPosition();
+        if (queuePosition == PlayQueue.NO_POSITION)
+            return;
+
+        int playbackPositionMs = mMediaPlayer != null && mMediaPlayerPrepared
+                ? mMediaPlayer.getCurrentPosition() : mPendingSeekMs;
+        mPlaybackSession.savePosition(queuePosition, playbackPositionMs, mPlayQueue.getMode());
+    }
+
+
+    private void setTracks(List<ParcelableSpotifyObject> tracksList) {
+        mPlayQueue.setTracks(tracksList);
+        mPlaybackSession.saveQueue(mPlayQueue.getTracks());
+        //The retained track belongs to the previous queue
+        bus.clearRetained(TrackLoadedEvent.class);
+
+        //Positions now refer to a different queue
+        releaseNextPlayer();
+        mConsecutiveFailures = 0;
+    }
+
+    private void setPlayMode(int playMode) {
+        mPlayQueue.setMode(playMode);
+        saveSessionPosition();
+
+        //The following track may have changed
+        releaseNextPlayer();
+        if (mMediaPlayer != null && mMediaPlayerPrepared)
+            prepareNextPlayer();
+        readAhead();
     }
 
     private void playPreviousTrack() {
-        int previousTrackIndex = mCurrentTrackIndex - 1;
-        if (mTracksList == null || previousTrackIndex < 0)
+        int previousTrackIndex = mPlayQueue.getPreviousPosition();
+        if (previousTrackIndex == PlayQueue.NO_POSITION)
             return;
 
         playTrack(previousTrackIndex);
     }
 
     private void playNextTrack() {
-        int nextTrackIndex = mCurrentTrackIndex + 1;
-
-        if (mTracksList == null || nextTrackIndex >= mTracksList.size())
+        int nextTrackIndex = mPlayQueue.getNextPosition();
+        if (nextTrackIndex == PlayQueue.NO_POSITION)
             return;
 
         playTrack(nextTrackIndex);
     }
 
     private void stopPlayback() {
+        stopProgressUpdates();
+        stopSessionSaves();
+
         if (mMediaPlayer == null)
             return;
 
-        if (mMediaPlayer.isPlaying())
-            mMediaPlayer.stop();
-
-        mMediaPlayer.setOnPreparedListener(null);
-        mMediaPlayer.reset();
-        mMediaPlayer.release();
+        releasePlayer(mMediaPlayer);
         mMediaPlayer = null;
+        mMediaPlayerPrepared = false;
+    }
 
-        if (mBroadcastTrackProgressTask != null)
-            mBroadcastTrackProgressTask.cancel(true);
+    private void releaseNextPlayer() {
+        if (mMediaPlayer != null && mMediaPlayerPrepared)
+            mMediaPlayer.setNextMediaPlayer(null);
+
+        if (mNextMediaPlayer != null)
+            releasePlayer(mNextMediaPlayer);
+
+        mNextMediaPlayer = null;
+        mNextMediaPlayerPrepared = false;
+        mNextTrackIndex = PlayQueue.NO_POSITION;
+    }
+
+    private void releasePlayer(MediaPlayer mediaPlayer) {
+        mediaPlayer.setOnPreparedListener(null);
+        mediaPlayer.setOnCompletionListener(null);
+        mediaPlayer.setOnErrorListener(null);
+        if (mediaPlayer.isPlaying())
+            mediaPlayer.stop();
+        mediaPlayer.reset();
+        mediaPlayer.release();
+    }
+
+    private MediaPlayer createPlayer(ParcelableSpotifyObject track) {
+        final MediaPlayer mediaPlayer = new MediaPlayer();
+        mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        mediaPlayer.setOnPreparedListener(this);
+        mediaPlayer.setOnErrorListener(this);
+        mediaPlayer.setOnCompletionListener(this);
+        try {
+            if (setCachedDataSource(mediaPlayer, track.previewUrl)) {
+                mediaPlayer.prepareAsync();
+                return mediaPlayer;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to play " + track.previewUrl, e);
+            mediaPlayer.release();
+            return null;
+        }
+
+        //Downloaded once and played from disk, so replays don't download it again
+        mPreviewCache.fetch(track.previewUrl, new PreviewCache.Callback() {
+            @Override
+            public void onPreviewFetched(String url, boolean cached) {
+                if (mediaPlayer != mMediaPlayer && mediaPlayer != mNextMediaPlayer)
+                    return;
+
+                try {
+                    if (!cached || !setCachedDataSource(mediaPlayer, url)) {
+                        //Not cacheable right now, stream it
+                        mediaPlayer.setDataSource(url);
+                    }
+                    mediaPlayer.prepareAsync();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Unable to play " + url, e);
+                    //As the player itself reports it
+                    if (!onError(mediaPlayer, MediaPlayer.MEDIA_ERROR_UNKNOWN, MediaPlayer.MEDIA_ERROR_IO))
+                        onCompletion(mediaPlayer);
+                }
+            }
+        });
+        return mediaPlayer;
+    }
+
+    /**
+     * Plays the cached copy of url if there is one
+     */
+    private boolean setCachedDataSource(MediaPlayer mediaPlayer, String url) throws IOException {
+        File cachedPreview = mPreviewCache.get(url);
+        if (cachedPreview == null)
+            return false;
+
+        //The media server can't open our private files by path, hand it the descriptor
+        FileInputStream inputStream;
+        try {
+            inputStream = new FileInputStream(cachedPreview);
+        } catch (FileNotFoundException e) {
+            //Cleared along with the app cache
+            mPreviewCache.evict(url);
+            return false;
+        }
+        try {
+            mediaPlayer.setDataSource(inputStream.getFD());
+        } finally {
+            inputStream.close();
+        }
+        return true;
     }
 
     private void playTrack(int trackId) {
+        playTrack(trackId, 0);
+    }
+
+    /**
+     * Plays from startMs. Set before the track is broadcast, so the saved session keeps it.
+     */
+    private void playTrack(int trackId, int startMs) {
+        if (!mPlayQueue.isValidPosition(trackId))
+            return;
+
+        //Reuse the player prepared in advance, if it is the requested one
+        if (trackId == mNextTrackIndex && mNextMediaPlayer != null) {
+            promoteNextPlayer(false);
+            return;
+        }
+
         //Stop playback
         stopPlayback();
+        releaseNextPlayer();
+        mPendingSeekMs = startMs;
+        mPlaybackActive = true;
 
         //Get track
-        mCurrentTrack = mTracksList.get(trackId);
-        mCurrentTrackIndex = mTracksList.indexOf(mCurrentTrack);
-        String trackUrl = mCurrentTrack.previewUrl;
+        mCurrentTrack = mPlayQueue.moveTo(trackId);
 
         //Notify track to be played
         broadcastTrackToBePlayed();
 
         //Start Media Player
-        mMediaPlayer = new MediaPlayer();
-        mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-        mMediaPlayer.setOnPreparedListener(this);
-        mMediaPlayer.setOnErrorListener(this);
-        mMediaPlayer.setOnCompletionListener(this);
-        try {
-            mMediaPlayer.setDataSource(trackUrl);
-            mMediaPlayer.prepareAsync();
-        } catch (IOException e) {
-            e.printStackTrace();
+        mMediaPlayer = createPlayer(mCurrentTrack);
+        readAhead();
+    }
+
+    /**
+     * Makes the next player the current one. When it was chained to the completed
+     * player it is already playing, otherwise it starts as soon as it is prepared.
+     */
+    private void promoteNextPlayer(boolean alreadyStarted) {
+        MediaPlayer nextMediaPlayer = mNextMediaPlayer;
+        boolean nextPrepared = mNextMediaPlayerPrepared;
+        int nextTrackIndex = mNextTrackIndex;
+        mNextMediaPlayer = null;
+        mNextMediaPlayerPrepared = false;
+        mNextTrackIndex = PlayQueue.NO_POSITION;
+
+        if (mMediaPlayer != null && mMediaPlayerPrepared && !alreadyStarted)
+            mMediaPlayer.setNextMediaPlayer(null);
+        stopPlayback();
+
+        mMediaPlayer = nextMediaPlayer;
+        mMediaPlayerPrepared = nextPrepared;
+        mCurrentTrack = mPlayQueue.moveTo(nextTrackIndex);
+
+        broadcastTrackToBePlayed();
+        readAhead();
+
+        if (nextPrepared) {
+            if (!alreadyStarted)
+                mMediaPlayer.start();
+            onCurrentPlayerStarted();
+            prepareNextPlayer();
+        }
+    }
+
+    /**
+     * Prepares the player for the track following the current one, as the play mode
+     * decides, and chains it
+     */
+    private void prepareNextPlayer() {
+        int nextTrackIndex = mPlayQueue.getAutoAdvancePosition();
+        if (nextTrackIndex == PlayQueue.NO_POSITION)
+            return;
+
+        if (mNextMediaPlayer != null && mNextTrackIndex == nextTrackIndex) {
+            chainNextPlayer();
+            return;
+        }
+
+        releaseNextPlayer();
+        mNextTrackIndex = nextTrackIndex;
+        mNextMediaPlayer = createPlayer(mPlayQueue.get(nextTrackIndex));
+        if (mNextMediaPlayer == null)
+            mNextTrackIndex = PlayQueue.NO_POSITION;
+    }
+
+    /**
+     * Downloads the previews of the tracks around the current one, so skipping plays from disk
+     */
+    private void readAhead() {
+        for (int offset : READ_AHEAD_OFFSETS) {
+            int index = mPlayQueue.peek(offset);
+            if (index != PlayQueue.NO_POSITION)
+                mPreviewCache.prefetch(mPlayQueue.get(index).previewUrl);
+        }
+        prefetchArt();
+    }
+
+    /**
+     * Warms the image cache with the art of the neighbour tracks, at the player and at the
+     * notification size, so skipping shows it without a download
+     */
+    private void prefetchArt() {
+        for (int offset : ART_PREFETCH_OFFSETS) {
+            int index = mPlayQueue.peek(offset);
+            if (index == PlayQueue.NO_POSITION)
+                continue;
+
+            ParcelableSpotifyObject track = mPlayQueue.get(index);
+            if (track.largeThumbnailUrl != null && !track.largeThumbnailUrl.isEmpty())
+                mImageSelector.playerArt(this, track.largeThumbnailUrl)
+                        .priority(Picasso.Priority.LOW)
+                        .fetch();
+            if (track.smallThumbnailUrl != null && !track.smallThumbnailUrl.isEmpty())
+                mImageSelector.notificationArt(this, track.smallThumbnailUrl)
+                        .priority(Picasso.Priority.LOW)
+                        .fetch();
         }
     }
 
+    private void chainNextPlayer() {
+        if (mMediaPlayer != null && mMediaPlayerPrepared
+                && mNextMediaPlayer != null && mNextMediaPlayerPrepared)
+            mMediaPlayer.setNextMediaPlayer(mNextMediaPlayer);
+    }
+
     private void pauseTrack() {
-        if (mMediaPlayer == null)
+        if (mMediaPlayer == null || !mMediaPlayerPrepared)
             return;
 
         mMediaPlayer.pause();
+        saveSessionPosition();
+        //The retained state would still say playing
+        bus.post(new TrackLoadedEvent(mCurrentTrack));
 
-        if (mBroadcastTrackProgressTask != null)
-            mBroadcastTrackProgressTask.cancel(true);
+        stopProgressUpdates();
+        stopSessionSaves();
 
         showNotification();
     }
 
+    /**
+     * Resumes the player, or starts the restored track where the last session left it
+     */
+    private void resumeOrRestoreTrack() {
+        if (mMediaPlayer != null) {
+            resumeTrack();
+            return;
+        }
+        if (mCurrentTrack == null) {
+            restoreSession(true, true);
+            return;
+        }
+
+        playTrack(mPlayQueue.getCurrentPosition(), mPendingSeekMs);
+    }
+
     private void resumeTrack() {
-        if (mMediaPlayer == null)
+        if (mMediaPlayer == null || !mMediaPlayerPrepared)
             return;
 
         mMediaPlayer.start();
+        onCurrentPlayerStarted();
+    }
 
-        mBroadcastTrackProgressTask = new BroadcastTrackProgressTask();
-        mBroadcastTrackProgressTask.execute();
+    private void onCurrentPlayerStarted() {
+        startProgressUpdates();
+        startSessionSaves();
 
         showNotification();
     }
@@ -321,6 +710,7 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnPrepare
     private void broadcastTrackToBePlayed() {
         TrackLoadedEvent event = new TrackLoadedEvent(mCurrentTrack);
         bus.post(event);
+        saveSessionPosition();
 
         showNotification();
     }
@@ -396,10 +786,12 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnPrepare
         Notification notification = notificationBuilder.build();
         notificationManager.notify(NOTIFICATION_ID, notification);
 
-        //Thumbnail
-        String thumbnailUrl = mCurrentTrack.largeThumbnailUrl;
-        if(thumbnailUrl != null)
-            Picasso.with(this).load(thumbnailUrl).into(remoteView, R.id.album_thumbnail, NOTIFICATION_ID, notification);
+        //Thumbnail, the list sized variant is the closest to the notification icon
+        String thumbnailUrl = mCurrentTrack.smallThumbnailUrl;
+        if (thumbnailUrl != null && !thumbnailUrl.isEmpty()) {
+            mImageSelector.notificationArt(this, thumbnailUrl)
+                    .into(remoteView, R.id.album_thumbnail, NOTIFICATION_ID, notification);
+        }
     }
 
 
@@ -407,57 +799,143 @@ public class MediaPlayerService extends Service implements MediaPlayer.OnPrepare
     private void showNotification() {
         Log.d(LOG_TAG, "Displaying notification");
         showNotificationUsingCustomLayout();
+        //Every state change refreshes the notification, bound clients follow it
+        notifyListeners();
+    }
+
+    private void notifyListeners() {
+        boolean playing = isPlaying();
+        //Backwards, so a listener can remove itself
+        for (int i = mListeners.size() - 1; i >= 0; i--) {
+            mListeners.get(i).onPlaybackStateChanged(mCurrentTrack, playing);
+        }
     }
 
     @Override
     public void onCompletion(MediaPlayer mp) {
+        if (mp != mMediaPlayer)
+            return;
+
+        if (mNextMediaPlayer != null) {
+            //A prepared and chained player has already taken over
+            promoteNextPlayer(mNextMediaPlayerPrepared);
+            return;
+        }
 
+        //Nothing prepared in advance, e.g. it failed: keep going the slow way, unless every
+        //track of the queue failed in a row, e.g. offline in repeat all
+        int nextTrackIndex = mPlayQueue.getAutoAdvancePosition();
+        if (nextTrackIndex != PlayQueue.NO_POSITION && mConsecutiveFailures < mPlayQueue.size()) {
+            playTrack(nextTrackIndex);
+            return;
+        }
+
+        stopProgressUpdates();
+        stopSessionSaves();
+        mPlaybackActive = false;
+
+        showNotification();
+        stopIfIdle();
     }
 
 
     /**
-     * BroadcastTrackProgressTask: reports song that is being played and progress
+     * Progress ticker: reports song that is being played and progress from the main looper
      */
-    class BroadcastTrackProgressTask extends AsyncTask<Void, Void, Void> {
+    private final Handler mProgressHandler = new Handler(Looper.getMainLooper());
 
+    private final Runnable mProgressTicker = new Runnable() {
         @Override
-        protected Void doInBackground(Void... voids) {
+        public void run() {
+            if (mMediaPlayer == null || !mMediaPlayerPrepared || !mMediaPlayer.isPlaying())
+                return;
 
-            while (!isCancelled()) {
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+            broadcastTrackPlayingProgress();
+            mProgressHandler.postDelayed(this, PROGRESS_INTERVAL_MS);
+        }
+    };
 
-                if (!mMediaPlayer.isPlaying())
-                    return null;
+    private void startProgressUpdates() {
+        mProgressHandler.removeCallbacks(mProgressTicker);
+        if (mPlayerUiVisible)
+            mProgressHandler.post(mProgressTicker);
+    }
 
-                broadcastTrackPlayingProgress();
-            }
+    private void stopProgressUpdates() {
+        mProgressHandler.removeCallbacks(mProgressTicker);
+    }
 
-            return null;
+    /**
+     * Session saver: keeps the saved position recent while playing, with or without UI
+     */
+    private final Runnable mSessionSaver = new Runnable() {
+        @Override
+        public void run() {
+            if (!isPlaying())
+                return;
+
+            saveSessionPosition();
+            mProgressHandler.postDelayed(this, SESSION_SAVE_INTERVAL_MS);
         }
+    };
+
+    private void startSessionSaves() {
+        mProgressHandler.removeCallbacks(mSessionSaver);
+        mProgressHandler.postDelayed(mSessionSaver, SESSION_SAVE_INTERVAL_MS);
+    }
+
+    private void stopSessionSaves() {
+        mProgressHandler.removeCallbacks(mSessionSaver);
+    }
+
+    @Subscribe
+    public void onPlayerVisibilityChanged(PlayerVisibilityEvent event) {
+        mPlayerUiVisible = event.isVisible();
+        if (mPlayerUiVisible)
+            startProgressUpdates();
+        else
+            stopProgressUpdates();
     }
 
     private void broadcastTrackPlayingProgress() {
-        TrackPlayingEvent event = TrackPlayingEvent.newInstance(
-                mCurrentTrack,
-                mMediaPlayer.getCurrentPosition()
-        );
-        bus.post(event);
+        //Posted on the main thread, so subscribers are done with it before the next tick
+        mTrackPlayingEvent.update(mCurrentTrack, mMediaPlayer.getCurrentPosition());
+        bus.post(mTrackPlayingEvent);
     }
 
 
     @Override
     public void onPrepared(MediaPlayer mediaPlayer) {
+        if (mediaPlayer == mNextMediaPlayer) {
+            mNextMediaPlayerPrepared = true;
+            chainNextPlayer();
+            return;
+        }
+
+        mMediaPlayerPrepared = true;
+        mConsecutiveFailures = 0;
+        if (mPendingSeekMs > 0) {
+            //Restored session, continue from where it stopped
+            mediaPlayer.seekTo(mPendingSeekMs);
+            mPendingSeekMs = 0;
+        }
         broadcastTrackPlayingProgress();
         resumeTrack();
+        prepareNextPlayer();
     }
 
     @Override
     public boolean onError(MediaPlayer mediaPlayer, int i, int i1) {
+        if (mediaPlayer == mNextMediaPlayer) {
+            //It will be prepared again when its turn comes
+            Log.w(LOG_TAG, "Error preparing the next track");
+            releaseNextPlayer();
+            return true;
+        }
+
         Log.e(LOG_TAG, "Error during Playback!");
+        if (!mMediaPlayerPrepared)
+            mConsecutiveFailures++;
         return false;
     }
 
@@ -1,8 +1,12 @@
 package com.laquysoft.spotifystreamer;
 
 import android.app.Dialog;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.support.v4.app.DialogFragment;
 import android.support.v4.view.MenuItemCompat;
 import android.support.v7.widget.ShareActionProvider;
@@ -18,15 +22,19 @@ import android.widget.ImageView;
 import android.widget.SeekBar;
 import android.widget.TextView;
 
+import com.laquysoft.spotifystreamer.common.FrameThrottledSeekListener;
+import com.laquysoft.spotifystreamer.common.ImageSelector;
 import com.laquysoft.spotifystreamer.common.MainThreadBus;
 import com.laquysoft.spotifystreamer.components.DaggerEventBusComponent;
 import com.laquysoft.spotifystreamer.components.EventBusComponent;
+import com.laquysoft.spotifystreamer.events.PlayerVisibilityEvent;
 import com.laquysoft.spotifystreamer.events.TrackLoadedEvent;
 import com.laquysoft.spotifystreamer.events.TrackPlayingEvent;
 import com.laquysoft.spotifystreamer.model.ParcelableSpotifyObject;
 import com.laquysoft.spotifystreamer.modules.EventBusModule;
+import com.laquysoft.spotifystreamer.playback.PlayQueue;
+import com.laquysoft.spotifystreamer.playback.PlaybackController;
 import com.squareup.otto.Subscribe;
-import com.squareup.picasso.Picasso;
 
 import java.util.ArrayList;
 
@@ -75,6 +83,12 @@ public class PlayerFragment extends DialogFragment implements View.OnClickListen
 
     private int trackProgress = 0;
     private boolean mPlaying;
+    private ImageSelector mImageSelector;
+    private String mAlbumArtUrl;
+    //Null until the service is bound
+    private PlaybackController mController;
+    private boolean mStartPlaybackOnConnect;
+    private FrameThrottledSeekListener mScrubListener;
 
     @Inject
     MainThreadBus bus;
@@ -134,17 +148,67 @@ public class PlayerFragment extends DialogFragment implements View.OnClickListen
         super.onCreate(savedInstanceState);
         EventBusComponent component = DaggerEventBusComponent.builder().eventBusModule(new EventBusModule()).build();
         bus = component.provideMainThreadBus();
-        bus.register(this);
+        mImageSelector = SpotifyStreamerApplication.get(getActivity()).getSpotifyServiceComponent()
+                .provideImageSelector();
 
         if (savedInstanceState == null) {
             trackToPlayList = getArguments().getParcelableArrayList(TRACK_INFO_KEY);
-            trackIdx = getArguments().getInt(TRACK_IDX_KEY);
+            trackIdx = getArguments().getInt(TRACK_IDX_KEY, -1);
+            mStartPlaybackOnConnect = trackIdx != -1;
         } else {
             trackToPlayList = savedInstanceState.getParcelableArrayList(TRACK_INFO_KEY);
             trackIdx = savedInstanceState.getInt(TRACK_IDX_KEY);
         }
+
+        //Bound to the application context, so the connection does not hold the activity
+        getActivity().getApplicationContext().bindService(
+                new Intent(getActivity(), MediaPlayerService.class), mConnection, Context.BIND_AUTO_CREATE);
     }
 
+    @Override
+    public void onDestroy() {
+        if (mController != null) {
+            mController.removeListener(mPlaybackListener);
+            mController = null;
+        }
+        getActivity().getApplicationContext().unbindService(mConnection);
+        super.onDestroy();
+    }
+
+    private final ServiceConnection mConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mController = (PlaybackController) service;
+            mController.addListener(mPlaybackListener);
+
+            if (mStartPlaybackOnConnect) {
+                mStartPlaybackOnConnect = false;
+                mController.setTracks(trackToPlayList);
+                mController.playTrack(trackIdx);
+            } else if (bus.getRetained(TrackLoadedEvent.class) == null) {
+                //Nothing retained after process death, ask the service
+                mController.broadcastCurrentTrack();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mController = null;
+        }
+    };
+
+    private final PlaybackController.Listener mPlaybackListener = new PlaybackController.Listener() {
+        @Override
+        public void onPlaybackStateChanged(ParcelableSpotifyObject track, boolean playing) {
+            if (track == null || getView() == null) {
+                return;
+            }
+            mPlaying = playing;
+            playButton.setCompoundDrawablesRelativeWithIntrinsicBounds(
+                    playing ? android.R.drawable.ic_media_pause : android.R.drawable.ic_media_play, 0, 0, 0);
+        }
+    };
+
     /**
      * The system calls this to get the DialogFragment's layout, regardless
      * of whether it's being displayed as a dialog or an embedded fragment.
@@ -156,49 +220,39 @@ public class PlayerFragment extends DialogFragment implements View.OnClickListen
         View rootView = inflater.inflate(R.layout.player_activity, container, false);
 
         ButterKnife.inject(this, rootView);
+        //New view, nothing loaded into it yet
+        mAlbumArtUrl = null;
 
 
         playButton.setOnClickListener(this);
         nextButton.setOnClickListener(this);
         previousButton.setOnClickListener(this);
 
-        if (savedInstanceState == null) {
-            trackToPlayList = getArguments().getParcelableArrayList(TRACK_INFO_KEY);
-            trackIdx = getArguments().getInt(TRACK_IDX_KEY, -1);
-
-            if (trackIdx != -1) {
-                MediaPlayerService.playTrack(getActivity(), trackIdx);
-            }
-        } else {
-            MediaPlayerService.broadcastCurrentTrack(getActivity());
 
-        }
-
-
-        scrubBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+        //Dragging previews on the bar and seeks at most once per frame
+        mScrubListener = new FrameThrottledSeekListener() {
             @Override
-            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                if (fromUser) {
-                    MediaPlayerService.setTrackProgressTo(getActivity(), 300 * progress);
+            protected void onSeek(int progress) {
+                if (mController != null) {
+                    mController.seekTo(300 * progress);
                 }
-
-            }
-
-            @Override
-            public void onStartTrackingTouch(SeekBar seekBar) {
-
-            }
-
-            @Override
-            public void onStopTrackingTouch(SeekBar seekBar) {
-
             }
-        });
+        };
+        scrubBar.setOnSeekBarChangeListener(mScrubListener);
 
+        //Redraws from the retained track state right away
+        bus.register(this);
 
         return rootView;
     }
 
+    @Override
+    public void onDestroyView() {
+        mScrubListener.cancel();
+        bus.unregister(this);
+        super.onDestroyView();
+    }
+
     public void play(View w) {
         playButton = (Button) w;
         handlePlayButton();
@@ -207,10 +261,14 @@ public class PlayerFragment extends DialogFragment implements View.OnClickListen
     private void handlePlayButton() {
         if (mPlaying) {
             playButton.setCompoundDrawablesRelativeWithIntrinsicBounds(android.R.drawable.ic_media_play, 0, 0, 0);
-            MediaPlayerService.pauseTrack(getActivity());
+            if (mController != null) {
+                mController.pause();
+            }
         } else {
             playButton.setCompoundDrawablesRelativeWithIntrinsicBounds(android.R.drawable.ic_media_pause, 0, 0, 0);
-            MediaPlayerService.resumeTrack(getActivity());
+            if (mController != null) {
+                mController.resume();
+            }
         }
         mPlaying = !mPlaying;
     }
@@ -226,13 +284,17 @@ public class PlayerFragment extends DialogFragment implements View.OnClickListen
 
     public void onNext() {
 
-        MediaPlayerService.playNextTrack(getActivity());
+        if (mController != null) {
+            mController.playNext();
+        }
 
     }
 
     public void onPrevious() {
 
-        MediaPlayerService.playPreviousTrack(getActivity());
+        if (mController != null) {
+            mController.playPrevious();
+        }
 
     }
 
@@ -241,6 +303,18 @@ public class PlayerFragment extends DialogFragment implements View.OnClickListen
         super.onActivityCreated(savedInstanceState);
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        bus.post(PlayerVisibilityEvent.newInstance(true));
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        bus.post(PlayerVisibilityEvent.newInstance(false));
+    }
+
 
     @Override
     public void onClick(View v) {
@@ -259,12 +333,24 @@ public class PlayerFragment extends DialogFragment implements View.OnClickListen
         }
     }
 
+    private void loadAlbumArt(String url) {
+        if (url.isEmpty() || url.equals(mAlbumArtUrl)) {
+            //Progress events repeat the track, the art is already there
+            return;
+        }
+        mAlbumArtUrl = url;
+        //Decode at the size it is shown, the service already warmed the cache for it
+        mImageSelector.playerArt(getActivity(), url).into(trackAlbumThumbnail);
+    }
+
     @Subscribe
     public void getTrackPlaying(TrackPlayingEvent trackPlayingEvent) {
-        trackToPlay = trackPlayingEvent.getTrack();
-        if (!trackToPlay.largeThumbnailUrl.isEmpty()) {
-            Picasso.with(getActivity()).load(trackToPlay.largeThumbnailUrl).into(trackAlbumThumbnail);
+        if (mStartPlaybackOnConnect) {
+            //Replayed state of the previous queue, this one starts once connected
+            return;
         }
+        trackToPlay = trackPlayingEvent.getTrack();
+        loadAlbumArt(trackToPlay.largeThumbnailUrl);
 
         if (!trackToPlay.mName.isEmpty()) {
             trackNameTv.setText(trackToPlay.mName);
@@ -281,17 +367,22 @@ public class PlayerFragment extends DialogFragment implements View.OnClickListen
         mPlaying = true;
         playButton.setCompoundDrawablesRelativeWithIntrinsicBounds(android.R.drawable.ic_media_pause, 0, 0, 0);
 
-        scrubBar.setProgress(trackPlayingEvent.getProgress() / 300);
+        if (!mScrubListener.isScrubbing()) {
+            //The bar shows where the user is dragging to, not where playback still is
+            scrubBar.setProgress(trackPlayingEvent.getProgress() / 300);
+        }
 
     }
 
 
     @Subscribe
     public void getTrackLoaded(TrackLoadedEvent trackLoadedEvent) {
-        trackToPlay = trackLoadedEvent.getTrack();
-        if (!trackToPlay.largeThumbnailUrl.isEmpty()) {
-            Picasso.with(getActivity()).load(trackToPlay.largeThumbnailUrl).into(trackAlbumThumbnail);
+        if (mStartPlaybackOnConnect) {
+            //Replayed state of the previous queue, this one starts once connected
+            return;
         }
+        trackToPlay = trackLoadedEvent.getTrack();
+        loadAlbumArt(trackToPlay.largeThumbnailUrl);
 
         if (!trackToPlay.mName.isEmpty()) {
             trackNameTv.setText(trackToPlay.mName);
@@ -329,6 +420,35 @@ public class PlayerFragment extends DialogFragment implements View.OnClickListen
         if (trackToPlay != null) {
             mShareActionProvider.setShareIntent(createShareTrackIntent());
         }
+
+        menu.findItem(R.id.action_play_mode).setTitle(getPlayModeTitle(Utility.getPlayMode(getActivity())));
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_play_mode) {
+            int playMode = PlayQueue.nextMode(Utility.getPlayMode(getActivity()));
+            Utility.setPlayMode(getActivity(), playMode);
+            if (mController != null) {
+                mController.setPlayMode(playMode);
+            }
+            item.setTitle(getPlayModeTitle(playMode));
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private static int getPlayModeTitle(int playMode) {
+        switch (playMode) {
+            case PlayQueue.MODE_REPEAT_ONE:
+                return R.string.play_mode_repeat_one;
+            case PlayQueue.MODE_REPEAT_ALL:
+                return R.string.play_mode_repeat_all;
+            case PlayQueue.MODE_SHUFFLE:
+                return R.string.play_mode_shuffle;
+            default:
+                return R.string.play_mode_sequential;
+        }
     }
 
     private Intent createShareTrackIntent() {
@@ -1,16 +1,21 @@
 package com.laquysoft.spotifystreamer;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.laquysoft.spotifystreamer.common.AppExecutors;
+import com.laquysoft.spotifystreamer.common.ListDiff;
 import com.laquysoft.spotifystreamer.model.ParcelableSpotifyObject;
 import com.squareup.picasso.Picasso;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import butterknife.ButterKnife;
@@ -19,61 +24,205 @@ import butterknife.InjectView;
 /**
  * Created by joaobiriba on 12/06/15.
  */
-public class SpotifyObjectAdapter extends ArrayAdapter<ParcelableSpotifyObject> {
-
-
-    private int mObjectType;
+public class SpotifyObjectAdapter extends RecyclerView.Adapter<SpotifyObjectAdapter.ViewHolder> {
 
     public static final int VIEW_TYPE_ARTIST = 0;
     public static final int VIEW_TYPE_TOP_TRACK = 1;
 
+    //Tag of the row thumbnail requests, paused while the list flings
+    public static final Object THUMBNAIL_TAG = new Object();
+
+    private static final ListDiff.Callback<ParcelableSpotifyObject> DIFF_CALLBACK =
+            new ListDiff.Callback<ParcelableSpotifyObject>() {
+                @Override
+                public boolean areItemsTheSame(ParcelableSpotifyObject oldItem, ParcelableSpotifyObject newItem) {
+                    return stableKey(oldItem).equals(stableKey(newItem));
+                }
+
+                @Override
+                public boolean areContentsTheSame(ParcelableSpotifyObject oldItem, ParcelableSpotifyObject newItem) {
+                    return oldItem.equals(newItem);
+                }
+            };
+
+    public interface OnItemClickListener {
+        void onItemClick(int position);
+    }
+
+    private final Context mContext;
+    private final List<ParcelableSpotifyObject> mObjects;
+    private final int mObjectType;
+    private final int mThumbnailPx;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private OnItemClickListener mOnItemClickListener;
 
-    static class ViewHolder {
+    //Only the diff of the latest replaceAll gets applied
+    private int mGeneration;
+
+    static abstract class ViewHolder extends RecyclerView.ViewHolder {
         @InjectView(R.id.list_item_first_textview)
         public TextView name;
         @InjectView(R.id.thumbnail)
         public ImageView thumbnail;
-        @InjectView(R.id.list_item_second_textview)
-        public TextView secondTextLine;
-
 
         public ViewHolder(View view) {
+            super(view);
             ButterKnife.inject(this, view);
         }
+
+        void bind(ParcelableSpotifyObject object, int thumbnailPx) {
+            name.setText(object.mName);
+            if (!object.smallThumbnailUrl.isEmpty()) {
+                //Decode straight to the row size
+                Picasso.with(itemView.getContext()).load(object.smallThumbnailUrl)
+                        .resize(thumbnailPx, thumbnailPx)
+                        .centerCrop()
+                        .tag(THUMBNAIL_TAG)
+                        .into(thumbnail);
+            } else {
+                //Don't let a pending load for the previous row land here
+                Picasso.with(itemView.getContext()).cancelRequest(thumbnail);
+                thumbnail.setImageResource(android.R.drawable.btn_star);
+            }
+        }
     }
 
-    @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        ViewHolder viewHolder = null;
-        if (convertView == null) {
-            LayoutInflater inflater = (LayoutInflater) getContext()
-                    .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-            convertView = inflater.inflate(R.layout.list_item_artist, null);
-            viewHolder = new ViewHolder(convertView);
-            convertView.setTag(viewHolder);
-        } else {
-            viewHolder = (ViewHolder) convertView.getTag();
+    static class ArtistViewHolder extends ViewHolder {
+
+        public ArtistViewHolder(View view) {
+            super(view);
+        }
+    }
+
+    static class TrackViewHolder extends ViewHolder {
+        @InjectView(R.id.list_item_second_textview)
+        public TextView albumName;
+
+        public TrackViewHolder(View view) {
+            super(view);
         }
-        ParcelableSpotifyObject track = getItem(position);
 
-        if (mObjectType == VIEW_TYPE_TOP_TRACK ) {
-            viewHolder.secondTextLine.setVisibility(View.VISIBLE);
-            viewHolder.secondTextLine.setText(track.mFatherName);
+        @Override
+        void bind(ParcelableSpotifyObject track, int thumbnailPx) {
+            super.bind(track, thumbnailPx);
+            albumName.setText(track.mFatherName);
         }
+    }
 
+    /**
+     * The adapter shows, and keeps up to date, the given list
+     */
+    public SpotifyObjectAdapter(Context context, List<ParcelableSpotifyObject> objects, int objectType) {
+        mContext = context;
+        mObjects = objects;
+        mObjectType = objectType;
+        mThumbnailPx = SpotifyStreamerApplication.get(context).getSpotifyServiceComponent()
+                .provideImageSelector().getListThumbnailPx();
+        setHasStableIds(true);
+    }
 
-        viewHolder.name.setText(track.mName);
+    public void setOnItemClickListener(OnItemClickListener onItemClickListener) {
+        mOnItemClickListener = onItemClickListener;
+    }
 
-        if (!track.smallThumbnailUrl.isEmpty()) {
-            Picasso.with(parent.getContext()).load(track.smallThumbnailUrl).into(viewHolder.thumbnail);
+    @Override
+    public int getItemViewType(int position) {
+        return mObjectType;
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        LayoutInflater inflater = LayoutInflater.from(mContext);
+        final ViewHolder viewHolder;
+        if (viewType == VIEW_TYPE_TOP_TRACK) {
+            viewHolder = new TrackViewHolder(inflater.inflate(R.layout.list_item_track, parent, false));
+        } else {
+            viewHolder = new ArtistViewHolder(inflater.inflate(R.layout.list_item_artist, parent, false));
         }
-        return convertView;
+        viewHolder.itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int position = viewHolder.getAdapterPosition();
+                if (mOnItemClickListener != null && position != RecyclerView.NO_POSITION) {
+                    mOnItemClickListener.onItemClick(position);
+                }
+            }
+        });
+        return viewHolder;
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        holder.bind(mObjects.get(position), mThumbnailPx);
     }
 
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        //The row is off screen, its thumbnail is not worth decoding anymore
+        Picasso.with(mContext).cancelRequest(holder.thumbnail);
+    }
 
-    public SpotifyObjectAdapter(Context context, int resource,
-                                List<ParcelableSpotifyObject> tracks, int objectType) {
-        super(context, resource, tracks);
-        mObjectType = objectType;
+    @Override
+    public int getItemCount() {
+        return mObjects.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return stableId(stableKey(mObjects.get(position)));
+    }
+
+    public ParcelableSpotifyObject getItem(int position) {
+        return mObjects.get(position);
+    }
+
+    /**
+     * Replaces the whole content. The diff against the current content is computed in
+     * background, then applied with the matching item notifications in one go.
+     */
+    public void replaceAll(List<ParcelableSpotifyObject> objects) {
+        final int generation = ++mGeneration;
+        final List<ParcelableSpotifyObject> oldObjects = new ArrayList<>(mObjects);
+        final List<ParcelableSpotifyObject> newObjects = new ArrayList<>(objects);
+
+        AppExecutors.compute().execute(new Runnable() {
+            @Override
+            public void run() {
+                final ListDiff diff = ListDiff.calculate(oldObjects, newObjects, DIFF_CALLBACK);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            //Superseded, mObjects may not match oldObjects anymore
+                            return;
+                        }
+                        if (diff.isEmpty()) {
+                            return;
+                        }
+                        mObjects.clear();
+                        mObjects.addAll(newObjects);
+                        diff.dispatchUpdatesTo(SpotifyObjectAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    private static String stableKey(ParcelableSpotifyObject object) {
+        if (object.spotifyId != null) {
+            return object.spotifyId;
+        }
+        //Restored from an older state without ids
+        return object.mName + '\0' + object.mFatherName;
+    }
+
+    private static long stableId(String key) {
+        //64 bit FNV-1a, collisions are unlikely with a few tens of rows
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
     }
 }
@@ -0,0 +1,60 @@
+package com.laquysoft.spotifystreamer;
+
+import android.app.Application;
+import android.content.Context;
+
+import com.laquysoft.spotifystreamer.common.AppExecutors;
+import com.laquysoft.spotifystreamer.common.MainThreadBus;
+import com.laquysoft.spotifystreamer.components.DaggerSpotifyServiceComponent;
+import com.laquysoft.spotifystreamer.components.SpotifyServiceComponent;
+import com.laquysoft.spotifystreamer.data.CatalogStore;
+import com.laquysoft.spotifystreamer.events.TrackLoadedEvent;
+import com.laquysoft.spotifystreamer.events.TrackPlayingEvent;
+import com.laquysoft.spotifystreamer.modules.SpotifyServiceModule;
+import com.squareup.picasso.Picasso;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the application wide object graphs, so that every screen shares the same
+ * http client and its connection pool.
+ */
+public class SpotifyStreamerApplication extends Application {
+
+    private static final long CATALOG_MAX_AGE_MS = TimeUnit.DAYS.toMillis(7);
+
+    private SpotifyServiceComponent mSpotifyServiceComponent;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mSpotifyServiceComponent = DaggerSpotifyServiceComponent.builder()
+                .spotifyServiceModule(new SpotifyServiceModule(this))
+                .build();
+
+        //Every Picasso.with() call gets the app configured instance
+        Picasso.setSingletonInstance(mSpotifyServiceComponent.providePicasso());
+
+        //A late progress update is worthless once a newer one is waiting
+        MainThreadBus.getInstance().coalesceLatest(TrackPlayingEvent.class);
+        //A recreated player redraws from the last known track state
+        MainThreadBus.getInstance().retainLatest(TrackLoadedEvent.class, TrackPlayingEvent.class);
+
+        //Expire what the user has not looked at in a while
+        final CatalogStore catalogStore = mSpotifyServiceComponent.provideCatalogStore();
+        AppExecutors.disk().execute(new Runnable() {
+            @Override
+            public void run() {
+                catalogStore.compact(CATALOG_MAX_AGE_MS);
+            }
+        });
+    }
+
+    public SpotifyServiceComponent getSpotifyServiceComponent() {
+        return mSpotifyServiceComponent;
+    }
+
+    public static SpotifyStreamerApplication get(Context context) {
+        return (SpotifyStreamerApplication) context.getApplicationContext();
+    }
+}
@@ -70,7 +70,7 @@ public class TopTenTracksActivity extends AppCompatActivity implements PlayerFra
     @Override
     public void onItemSelected(ArrayList<ParcelableSpotifyObject> selectedTrack, int idx) {
 
-        MediaPlayerService.setTracks(this, selectedTrack);
+        //The player hands the tracks to the service once bound
 
         FragmentManager fragmentManager = getSupportFragmentManager();
 
@@ -1,33 +1,28 @@
 package com.laquysoft.spotifystreamer;
 
-import android.content.SharedPreferences;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.support.v4.app.Fragment;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.Toast;
 
-import com.laquysoft.spotifystreamer.components.DaggerSpotifyServiceComponent;
+import com.laquysoft.spotifystreamer.common.AppExecutors;
+import com.laquysoft.spotifystreamer.common.PauseOnFlingScrollListener;
 import com.laquysoft.spotifystreamer.components.SpotifyServiceComponent;
+import com.laquysoft.spotifystreamer.data.SpotifyRepository;
+import com.laquysoft.spotifystreamer.data.TopTracksCache;
 import com.laquysoft.spotifystreamer.model.ParcelableSpotifyObject;
-import com.laquysoft.spotifystreamer.modules.SpotifyServiceModule;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 import javax.inject.Inject;
 
-import kaaes.spotify.webapi.android.SpotifyService;
-import kaaes.spotify.webapi.android.models.ArtistSimple;
-import kaaes.spotify.webapi.android.models.Track;
-import kaaes.spotify.webapi.android.models.Tracks;
 import retrofit.RetrofitError;
 
 /**
@@ -45,8 +40,13 @@ public class TopTenTracksFragment extends Fragment {
 
     private int mSelectedTrackIdx;
 
+    private FetchTopTenTracksTask mFetchTopTenTracksTask;
+
+    @Inject
+    SpotifyRepository spotifyRepository;
+
     @Inject
-    SpotifyService spotifyService;
+    TopTracksCache topTracksCache;
 
 
     @Override
@@ -54,6 +54,11 @@ public class TopTenTracksFragment extends Fragment {
                              Bundle savedInstanceState) {
         View rootView = inflater.inflate(R.layout.fragment_top10, container, false);
 
+        SpotifyServiceComponent component = SpotifyStreamerApplication.get(getActivity())
+                .getSpotifyServiceComponent();
+        spotifyRepository = component.provideSpotifyRepository();
+        topTracksCache = component.provideTopTracksCache();
+
 
         if (savedInstanceState != null) {
             trackArrayList = savedInstanceState.getParcelableArrayList("TopTenTracks");
@@ -64,16 +69,20 @@ public class TopTenTracksFragment extends Fragment {
         }
 
         // The TracksAdapter will take data from a source and
-        // use it to populate the ListView it's attached to.
-        mTracksAdapter = new SpotifyObjectAdapter(getActivity(), R.layout.list_item_artist, trackArrayList, SpotifyObjectAdapter.VIEW_TYPE_TOP_TRACK);
-
-        // Get a reference to the ListView, and attach this adapter to it.
-        ListView listView = (ListView) rootView.findViewById(R.id.listview_tracks);
-        listView.setAdapter(mTracksAdapter);
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // use it to populate the RecyclerView it's attached to.
+        mTracksAdapter = new SpotifyObjectAdapter(getActivity(), trackArrayList, SpotifyObjectAdapter.VIEW_TYPE_TOP_TRACK);
+
+        // Get a reference to the RecyclerView, and attach this adapter to it.
+        RecyclerView recyclerView = (RecyclerView) rootView.findViewById(R.id.listview_tracks);
+        recyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        recyclerView.setHasFixedSize(true);
+        recyclerView.addOnScrollListener(new PauseOnFlingScrollListener(getActivity(),
+                SpotifyObjectAdapter.THUMBNAIL_TAG));
+        recyclerView.setAdapter(mTracksAdapter);
+        mTracksAdapter.setOnItemClickListener(new SpotifyObjectAdapter.OnItemClickListener() {
 
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
+            public void onItemClick(int position) {
                 mSelectedTrackIdx = position;
                 ParcelableSpotifyObject selectedTrack = mTracksAdapter.getItem(mSelectedTrackIdx);
                 String trackName = selectedTrack.mName;
@@ -95,14 +104,33 @@ public class TopTenTracksFragment extends Fragment {
     }
 
     private void updateTopTenTracks() {
-        FetchTopTenTracksTask fetchTopTenTracksTask = new FetchTopTenTracksTask();
-        fetchTopTenTracksTask.execute(mSpotifyId);
+        if (mSpotifyId == null) {
+            return;
+        }
+
+        //Stale while revalidate: show the last known tracks right away, then refresh them
+        String country = Utility.getPreferredCountry(getActivity());
+        ArrayList<ParcelableSpotifyObject> cachedTracks = topTracksCache.get(mSpotifyId, country);
+        if (cachedTracks != null) {
+            displayTracks(cachedTracks);
+        }
+
+        if (mFetchTopTenTracksTask != null) {
+            mFetchTopTenTracksTask.cancel(true);
+        }
+        mFetchTopTenTracksTask = new FetchTopTenTracksTask(cachedTracks != null);
+        mFetchTopTenTracksTask.executeOnExecutor(AppExecutors.network(), mSpotifyId, country);
+    }
+
+    private void displayTracks(List<ParcelableSpotifyObject> tracks) {
+        //No rebind when the revalidated data is what we are already showing
+        mTracksAdapter.replaceAll(tracks);
     }
 
 
     public ParcelableSpotifyObject loadNext() {
         ParcelableSpotifyObject selectedTrack = null;
-        if (mSelectedTrackIdx < mTracksAdapter.getCount() - 1) {
+        if (mSelectedTrackIdx < mTracksAdapter.getItemCount() - 1) {
             mSelectedTrackIdx = mSelectedTrackIdx + 1;
             selectedTrack = mTracksAdapter.getItem(mSelectedTrackIdx);
         }
@@ -125,34 +153,35 @@ public class TopTenTracksFragment extends Fragment {
     }
 
 
-    public class FetchTopTenTracksTask extends AsyncTask<String, Void, Tracks> {
+    public class FetchTopTenTracksTask extends AsyncTask<String, ArrayList<ParcelableSpotifyObject>, ArrayList<ParcelableSpotifyObject>> {
 
         private final String LOG_TAG = FetchTopTenTracksTask.class.getSimpleName();
         private RetrofitError retrofitError;
+        private boolean mShowingStoredTracks;
+
+        public FetchTopTenTracksTask(boolean showingCachedTracks) {
+            mShowingStoredTracks = showingCachedTracks;
+        }
 
 
         @Override
-        protected Tracks doInBackground(String... params) {
+        protected ArrayList<ParcelableSpotifyObject> doInBackground(String... params) {
 
-            if (params.length == 0) {
+            if (params.length < 2) {
                 return null;
             }
 
-            SpotifyServiceComponent component = DaggerSpotifyServiceComponent.builder().spotifyServiceModule(new SpotifyServiceModule()).build();
-
-            spotifyService = component.provideSpotifyService();
-
-
-            //Get Country for results preference
-            SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(getActivity());
-            String default_locale = getActivity().getResources().getConfiguration().locale.getCountry();
-
-            Map<String, Object> country = new HashMap<>();
-            country.put("country", sharedPreferences.getString(
-                    getResources().getString(R.string.pref_country_code_key), default_locale));
+            if (!mShowingStoredTracks) {
+                //Show what we stored last time while the network catches up
+                ArrayList<ParcelableSpotifyObject> storedTracks =
+                        spotifyRepository.loadStoredTopTracks(params[0], params[1]);
+                if (!storedTracks.isEmpty() && !isCancelled()) {
+                    publishProgress(storedTracks);
+                }
+            }
 
             try {
-                return spotifyService.getArtistTopTrack(params[0], country);
+                return spotifyRepository.getTopTracks(params[0], params[1]);
 
             } catch (RetrofitError error) {
                 retrofitError = error;
@@ -160,36 +189,31 @@ public class TopTenTracksFragment extends Fragment {
             }
         }
 
+        @SafeVarargs
         @Override
-        protected void onPostExecute(Tracks result) {
+        protected final void onProgressUpdate(ArrayList<ParcelableSpotifyObject>... storedTracks) {
+            if (getActivity() == null) {
+                return;
+            }
+            mShowingStoredTracks = true;
+            displayTracks(storedTracks[0]);
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<ParcelableSpotifyObject> result) {
+            if (getActivity() == null) {
+                return;
+            }
+            if ((result == null || result.isEmpty()) && mShowingStoredTracks) {
+                //Offline, the stored tracks are the best we have
+                Log.d(LOG_TAG, "Keeping stored tracks for " + mSpotifyId);
+                return;
+            }
             if (result != null) {
-                if (result.tracks.isEmpty()) {
+                if (result.isEmpty()) {
                     Toast.makeText(getActivity(), "Track not found, please refine your search", Toast.LENGTH_LONG).show();
                 } else {
-                    mTracksAdapter.clear();
-                    String smallImageUrl = "";
-                    String bigImageUrl = "";
-                    for (Track track : result.tracks) {
-                        if (!track.album.images.isEmpty()) {
-                            smallImageUrl = track.album.images.get(0).url;
-                        }
-                        if (track.album.images.size() > 1) {
-                            bigImageUrl = track.album.images.get(1).url;
-                        }
-                        StringBuilder builder = new StringBuilder();
-                        for (ArtistSimple artist : track.artists) {
-                            if (builder.length() > 0) builder.append(", ");
-                            builder.append(artist.name);
-                        }
-                        ParcelableSpotifyObject parcelableSpotifyObject = new ParcelableSpotifyObject(track.name,
-                                track.album.name,
-                                builder.toString(),
-                                smallImageUrl,
-                                bigImageUrl,
-                                track.preview_url);
-                        mTracksAdapter.add(parcelableSpotifyObject);
-                        mTracksAdapter.notifyDataSetChanged();
-                    }
+                    displayTracks(result);
                 }
                 // New data is back from the server.  Hooray!
             } else {
@@ -218,6 +242,14 @@ public class TopTenTracksFragment extends Fragment {
 
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (mFetchTopTenTracksTask != null) {
+            mFetchTopTenTracksTask.cancel(true);
+        }
+    }
+
     @Override
     public void onSaveInstanceState(Bundle savedInstanceState) {
         savedInstanceState.putParcelableArrayList("TopTenTracks", trackArrayList);
@@ -0,0 +1,40 @@
+package com.laquysoft.spotifystreamer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.laquysoft.spotifystreamer.playback.PlayQueue;
+
+public class Utility {
+
+    /**
+     * Returns the country code chosen in the settings, falling back to the device locale.
+     */
+    public static String getPreferredCountry(Context context) {
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        String defaultLocale = context.getResources().getConfiguration().locale.getCountry();
+        return sharedPreferences.getString(
+                context.getString(R.string.pref_country_code_key), defaultLocale);
+    }
+
+    /**
+     * Returns the play queue mode last chosen in the player, one of PlayQueue MODE_*
+     */
+    public static int getPlayMode(Context context) {
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        return sharedPreferences.getInt(context.getString(R.string.pref_play_mode_key), PlayQueue.MODE_SEQUENTIAL);
+    }
+
+    public static void setPlayMode(Context context, int playMode) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putInt(context.getString(R.string.pref_play_mode_key), playMode)
+                .apply();
+    }
+
+    public static boolean isSearchAsYouTypeEnabled(Context context) {
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        return sharedPreferences.getBoolean(context.getString(R.string.pref_search_as_you_type_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_search_as_you_type_default)));
+    }
+}
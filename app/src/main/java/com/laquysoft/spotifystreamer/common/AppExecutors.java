@@ -0,0 +1,145 @@
+package com.laquysoft.spotifystreamer.common;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dedicated, bounded thread pools for the app background work, so that a search never
+ * waits behind playback or speculative work on AsyncTask's shared serial executor.
+ * <p/>
+ * When a queue is full the oldest queued task is cancelled: the newest request is the
+ * one the user is waiting for. The disk queue is the exception, it is unbounded since a
+ * dropped write loses data.
+ */
+public class AppExecutors {
+
+    private static final String LOG_TAG = AppExecutors.class.getSimpleName();
+
+    private static final int NETWORK_THREADS = 3;
+
+    private static final ThreadPoolExecutor sNetworkExecutor =
+            newExecutor("Network", NETWORK_THREADS, 16, Process.THREAD_PRIORITY_DEFAULT);
+
+    //As many threads as the network pool, one for the request each of its callers waits on
+    private static final ThreadPoolExecutor sHttpExecutor =
+            newExecutor("Http", NETWORK_THREADS, 16, Process.THREAD_PRIORITY_DEFAULT);
+
+    private static final ThreadPoolExecutor sPlaybackExecutor =
+            newExecutor("Playback", 1, 16, Process.THREAD_PRIORITY_DEFAULT);
+
+    private static final ThreadPoolExecutor sPrefetchExecutor =
+            newExecutor("Prefetch", 2, 16, Process.THREAD_PRIORITY_BACKGROUND);
+
+    private static final ThreadPoolExecutor sDiskExecutor =
+            newExecutor("Disk", 1, new LinkedBlockingQueue<Runnable>(), Process.THREAD_PRIORITY_BACKGROUND,
+                    new ThreadPoolExecutor.AbortPolicy());
+
+    private static final ThreadPoolExecutor sComputeExecutor =
+            newExecutor("Compute", 1, 16, Process.THREAD_PRIORITY_DEFAULT);
+
+    private AppExecutors() {
+    }
+
+    /**
+     * Api calls the user is waiting for
+     */
+    public static ThreadPoolExecutor network() {
+        return sNetworkExecutor;
+    }
+
+    /**
+     * The http requests themselves, shared between the callers waiting on them. Never
+     * blocks on another pool, so the callers can't starve it.
+     */
+    public static ThreadPoolExecutor http() {
+        return sHttpExecutor;
+    }
+
+    /**
+     * Work feeding the media player, like downloading previews
+     */
+    public static ThreadPoolExecutor playback() {
+        return sPlaybackExecutor;
+    }
+
+    /**
+     * Speculative work, run at background priority
+     */
+    public static ThreadPoolExecutor prefetch() {
+        return sPrefetchExecutor;
+    }
+
+    /**
+     * Local database and file work, serialized on a single thread. Nothing is ever dropped.
+     */
+    public static ThreadPoolExecutor disk() {
+        return sDiskExecutor;
+    }
+
+    /**
+     * Short cpu bound work the UI is waiting for, like list diffs
+     */
+    public static ThreadPoolExecutor compute() {
+        return sComputeExecutor;
+    }
+
+    private static ThreadPoolExecutor newExecutor(String name, int threads, int queueSize, int priority) {
+        return newExecutor(name, threads, new LinkedBlockingQueue<Runnable>(queueSize), priority,
+                new CancelOldestPolicy(name));
+    }
+
+    private static ThreadPoolExecutor newExecutor(final String name, int threads, BlockingQueue<Runnable> queue,
+                                                  final int priority, RejectedExecutionHandler rejectedHandler) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                queue,
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(1);
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(priority);
+                                runnable.run();
+                            }
+                        }, name + " #" + mCount.getAndIncrement());
+                    }
+                },
+                rejectedHandler);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class CancelOldestPolicy implements RejectedExecutionHandler {
+
+        private final String mName;
+
+        CancelOldestPolicy(String name) {
+            mName = name;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                return;
+            }
+            Runnable oldest = executor.getQueue().poll();
+            if (oldest instanceof Future) {
+                //AsyncTasks queue their FutureTask, cancelling it delivers onCancelled
+                ((Future<?>) oldest).cancel(false);
+            }
+            Log.w(LOG_TAG, mName + " queue full, dropped the oldest task");
+            executor.execute(runnable);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.laquysoft.spotifystreamer.common;
+
+import com.squareup.okhttp.CacheControl;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+
+/**
+ * Network interceptor that gives Web API responses a max-age when the server does not
+ * send one, so the OkHttp disk cache can answer repeated lookups without the network.
+ * The cache key is the full request url, which already carries the query and the
+ * country/market parameter.
+ */
+public class CacheTtlInterceptor implements Interceptor {
+
+    private static final int SEARCH_TTL_SECONDS = 10 * 60;
+    private static final int TOP_TRACKS_TTL_SECONDS = 60 * 60;
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Response response = chain.proceed(request);
+
+        if (!"GET".equals(request.method()) || !response.isSuccessful()) {
+            return response;
+        }
+
+        int ttl = ttlFor(request.urlString());
+        if (ttl <= 0 || CacheControl.parse(response.headers()).maxAgeSeconds() > 0) {
+            //Unknown endpoint or the server already told us how long to keep it
+            return response;
+        }
+
+        return response.newBuilder()
+                .removeHeader("Pragma")
+                .header("Cache-Control", "public, max-age=" + ttl)
+                .build();
+    }
+
+    private static int ttlFor(String url) {
+        if (url.contains("/search")) {
+            return SEARCH_TTL_SECONDS;
+        }
+        if (url.contains("/top-tracks")) {
+            return TOP_TRACKS_TTL_SECONDS;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,86 @@
+package com.laquysoft.spotifystreamer.common;
+
+import android.view.Choreographer;
+import android.widget.SeekBar;
+
+/**
+ * Turns a drag on a seek bar into at most one seek per frame. Intermediate positions are
+ * coalesced, only the latest one of each frame is sought, and the position the user
+ * lets go at is always sought. While dragging, the bar itself previews the position.
+ */
+public abstract class FrameThrottledSeekListener implements SeekBar.OnSeekBarChangeListener {
+
+    private static final int NO_PROGRESS = -1;
+
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private int mPendingProgress = NO_PROGRESS;
+    private boolean mFrameScheduled;
+    private boolean mScrubbing;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameScheduled = false;
+            if (mPendingProgress != NO_PROGRESS) {
+                int progress = mPendingProgress;
+                mPendingProgress = NO_PROGRESS;
+                onSeek(progress);
+            }
+        }
+    };
+
+    /**
+     * Seek to the given seek bar progress
+     */
+    protected abstract void onSeek(int progress);
+
+    /**
+     * True while the user drags, progress updates from the player should not move the bar
+     */
+    public boolean isScrubbing() {
+        return mScrubbing;
+    }
+
+    @Override
+    public void onStartTrackingTouch(SeekBar seekBar) {
+        mScrubbing = true;
+    }
+
+    @Override
+    public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+        if (!fromUser) {
+            return;
+        }
+        mPendingProgress = progress;
+        if (!mScrubbing) {
+            //Keyboard or trackball step, nothing else is coming
+            flush(progress);
+            return;
+        }
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            mChoreographer.postFrameCallback(mFrameCallback);
+        }
+    }
+
+    @Override
+    public void onStopTrackingTouch(SeekBar seekBar) {
+        mScrubbing = false;
+        flush(seekBar.getProgress());
+    }
+
+    /**
+     * Stops pending seeks, e.g. when the view goes away
+     */
+    public void cancel() {
+        mChoreographer.removeFrameCallback(mFrameCallback);
+        mFrameScheduled = false;
+        mPendingProgress = NO_PROGRESS;
+        mScrubbing = false;
+    }
+
+    private void flush(int progress) {
+        cancel();
+        onSeek(progress);
+    }
+}
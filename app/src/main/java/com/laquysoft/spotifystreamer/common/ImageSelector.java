@@ -0,0 +1,117 @@
+package com.laquysoft.spotifystreamer.common;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+import com.laquysoft.spotifystreamer.R;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
+
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import kaaes.spotify.webapi.android.models.Image;
+
+/**
+ * Picks, among the sizes Spotify offers for an image, the one closest to where it will be
+ * shown: the smallest variant that still covers the target, or the biggest one if none does.
+ * Target sizes come from the dimens, so they follow the screen density.
+ */
+@Singleton
+public class ImageSelector {
+
+    private final int mListThumbnailPx;
+    private final int mPlayerArtPx;
+    private final int mNotificationArtPx;
+
+    @Inject
+    public ImageSelector(Context context) {
+        Resources resources = context.getResources();
+        mListThumbnailPx = resources.getDimensionPixelSize(R.dimen.thumbnail_size);
+        mPlayerArtPx = resources.getDimensionPixelSize(R.dimen.player_art_size);
+        mNotificationArtPx = resources.getDimensionPixelSize(R.dimen.notification_art_size);
+    }
+
+    public int getListThumbnailPx() {
+        return mListThumbnailPx;
+    }
+
+    public int getPlayerArtPx() {
+        return mPlayerArtPx;
+    }
+
+    public int getNotificationArtPx() {
+        return mNotificationArtPx;
+    }
+
+    /**
+     * Url of the variant for list rows, or "" when there is no image
+     */
+    public String listThumbnailUrl(List<Image> images) {
+        return select(images, mListThumbnailPx);
+    }
+
+    /**
+     * Url of the variant for the player, or "" when there is no image
+     */
+    public String playerArtUrl(List<Image> images) {
+        return select(images, mPlayerArtPx);
+    }
+
+    /**
+     * Player art request. Prefetches must use the same request to hit the memory cache.
+     */
+    public RequestCreator playerArt(Context context, String url) {
+        return Picasso.with(context).load(url)
+                .resize(mPlayerArtPx, mPlayerArtPx)
+                .centerInside();
+    }
+
+    /**
+     * Notification art request. Prefetches must use the same request to hit the memory cache.
+     */
+    public RequestCreator notificationArt(Context context, String url) {
+        return Picasso.with(context).load(url)
+                .resize(mNotificationArtPx, mNotificationArtPx)
+                .centerCrop();
+    }
+
+    public static String select(List<Image> images, int targetPx) {
+        if (images == null || images.isEmpty()) {
+            return "";
+        }
+
+        Image best = null;
+        int bestSize = 0;
+        for (Image image : images) {
+            int size = sizeOf(image);
+            if (best == null) {
+                best = image;
+                bestSize = size;
+            } else if (size >= targetPx) {
+                //Covers the target: the smaller the better
+                if (bestSize < targetPx || size < bestSize) {
+                    best = image;
+                    bestSize = size;
+                }
+            } else if (bestSize < targetPx && size > bestSize) {
+                //Nothing covers the target yet: the bigger the better
+                best = image;
+                bestSize = size;
+            }
+        }
+        return best.url;
+    }
+
+    private static int sizeOf(Image image) {
+        //Artist images are not always square, the shorter side is what gets cropped to
+        int width = image.width != null ? image.width : 0;
+        int height = image.height != null ? image.height : 0;
+        if (width == 0 || height == 0) {
+            return Math.max(width, height);
+        }
+        return Math.min(width, height);
+    }
+}
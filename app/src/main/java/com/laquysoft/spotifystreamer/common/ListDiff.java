@@ -0,0 +1,110 @@
+package com.laquysoft.spotifystreamer.common;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.List;
+
+/**
+ * Minimal edit script between two lists, based on their longest common subsequence, so a
+ * RecyclerView adapter can notify single inserts, removals and changes instead of
+ * rebinding everything. Moves show up as a removal plus an insertion.
+ * <p/>
+ * Quadratic in time and space: meant for result lists of tens of items, computed off the
+ * main thread.
+ */
+public class ListDiff {
+
+    public interface Callback<T> {
+        /**
+         * True if both represent the same entity, e.g. they have the same id
+         */
+        boolean areItemsTheSame(T oldItem, T newItem);
+
+        /**
+         * True if an item kept in place does not need to be rebound
+         */
+        boolean areContentsTheSame(T oldItem, T newItem);
+    }
+
+    private static final int OP_REMOVE = 0;
+    private static final int OP_INSERT = 1;
+    private static final int OP_CHANGE = 2;
+
+    //Pairs of (operation, adapter position), in the order they have to be notified
+    private final int[] mOps;
+    private final int mOpCount;
+
+    private ListDiff(int[] ops, int opCount) {
+        mOps = ops;
+        mOpCount = opCount;
+    }
+
+    public static <T> ListDiff calculate(List<T> oldList, List<T> newList, Callback<T> callback) {
+        int oldSize = oldList.size();
+        int newSize = newList.size();
+
+        //lcs[i][j] is the common subsequence length of oldList[i..] and newList[j..]
+        int[][] lcs = new int[oldSize + 1][newSize + 1];
+        for (int i = oldSize - 1; i >= 0; i--) {
+            for (int j = newSize - 1; j >= 0; j--) {
+                if (callback.areItemsTheSame(oldList.get(i), newList.get(j))) {
+                    lcs[i][j] = lcs[i + 1][j + 1] + 1;
+                } else {
+                    lcs[i][j] = Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+                }
+            }
+        }
+
+        int[] ops = new int[2 * (oldSize + newSize)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        //Position in the list as it looks after the operations emitted so far
+        int position = 0;
+        while (i < oldSize || j < newSize) {
+            if (i < oldSize && j < newSize && callback.areItemsTheSame(oldList.get(i), newList.get(j))) {
+                if (!callback.areContentsTheSame(oldList.get(i), newList.get(j))) {
+                    ops[count++] = OP_CHANGE;
+                    ops[count++] = position;
+                }
+                i++;
+                j++;
+                position++;
+            } else if (j >= newSize || (i < oldSize && lcs[i + 1][j] >= lcs[i][j + 1])) {
+                ops[count++] = OP_REMOVE;
+                ops[count++] = position;
+                i++;
+            } else {
+                ops[count++] = OP_INSERT;
+                ops[count++] = position;
+                j++;
+                position++;
+            }
+        }
+        return new ListDiff(ops, count);
+    }
+
+    public boolean isEmpty() {
+        return mOpCount == 0;
+    }
+
+    /**
+     * Notifies the adapter, which must already expose the new list
+     */
+    public void dispatchUpdatesTo(RecyclerView.Adapter<?> adapter) {
+        for (int k = 0; k < mOpCount; k += 2) {
+            int position = mOps[k + 1];
+            switch (mOps[k]) {
+                case OP_REMOVE:
+                    adapter.notifyItemRemoved(position);
+                    break;
+                case OP_INSERT:
+                    adapter.notifyItemInserted(position);
+                    break;
+                default:
+                    adapter.notifyItemChanged(position);
+                    break;
+            }
+        }
+    }
+}
@@ -6,9 +6,33 @@ import android.util.Log;
 
 import com.squareup.otto.Bus;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
 import javax.inject.Singleton;
 
 /**
+ * Otto bus delivering on the main thread. Events posted from other threads are queued and
+ * delivered in batches by a single reusable runnable, so a post does not allocate.
+ * <p/>
+ * Types registered with {@link #coalesceLatest(Class)}, like progress updates, keep only
+ * their latest pending event: a busy main thread skips the outdated ones instead of
+ * delivering them one by one. Coalesced events are delivered after the queued ones.
+ * <p/>
+ * Subscribers with a generated {@link SubscriberDispatcher} are kept here and called
+ * directly, without reflection. Otto only sees the others, and is skipped entirely when
+ * there are none.
+ * <p/>
+ * Types registered with {@link #retainLatest(Class[])} describe a current state: the latest
+ * event among them is kept and delivered to indexed subscribers as soon as they register.
+ * <p/>
  * Created by joaobiriba on 01/08/15.
  */
 @Singleton
@@ -17,28 +41,287 @@ public class MainThreadBus extends Bus {
 
     private final Handler mHandler = new Handler(Looper.getMainLooper());
 
+    private static final String DISPATCHER_SUFFIX = "$$SubscriberDispatcher";
+    //Cached result of the dispatcher lookup, per subscriber class
+    private static final Object NO_DISPATCHER = new Object();
+    private static final Map<Class<?>, Object> sDispatchers = new HashMap<>();
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
+    //After the constants its constructor uses, static fields are initialized in order
     private static MainThreadBus sInstance = new MainThreadBus();
 
+    //Indexed subscribers, copied on write, plus the ones handling each event class
+    private volatile Subscription[] mSubscriptions = NO_SUBSCRIPTIONS;
+    private final Map<Class<?>, Subscription[]> mSubscriptionsByEventType = new ConcurrentHashMap<>();
+    private volatile int mOttoSubscriberCount;
+
+    //Retained types share a slot per group, the latest event of the group wins
+    private volatile Map<Class<?>, Integer> mRetainedGroups = new HashMap<>();
+    private Object[] mRetainedEvents = new Object[0];
+
+    //Events posted by a handler wait for the current one to be delivered, as in Otto
+    private final ArrayDeque<Object> mNestedEvents = new ArrayDeque<>();
+    private boolean mDelivering;
+
+    //Latest pending event per coalesced type, copied on write as types are only added at startup
+    private volatile Map<Class<?>, AtomicReference<Object>> mLatestSlots = new HashMap<>();
+    private volatile AtomicReference<?>[] mLatestSlotList = new AtomicReference<?>[0];
+
+    //Other events posted off the main thread, in order
+    private final ArrayDeque<Object> mPendingEvents = new ArrayDeque<>();
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            //Posts from now on need a new drain
+            mDrainScheduled.set(false);
+
+            Object event;
+            while ((event = pollPendingEvent()) != null) {
+                deliver(event);
+            }
+
+            AtomicReference<?>[] slots = mLatestSlotList;
+            for (AtomicReference<?> slot : slots) {
+                Object latest = slot.getAndSet(null);
+                if (latest != null) {
+                    deliver(latest);
+                }
+            }
+        }
+    };
+
     private MainThreadBus () {
     }
 
     public static MainThreadBus getInstance() {
         return sInstance;
     }
+
+    /**
+     * Only the latest event of this type waiting for the main thread gets delivered
+     */
+    public synchronized void coalesceLatest(Class<?> eventType) {
+        if (mLatestSlots.containsKey(eventType)) {
+            return;
+        }
+        Map<Class<?>, AtomicReference<Object>> slots = new HashMap<>(mLatestSlots);
+        slots.put(eventType, new AtomicReference<Object>());
+        mLatestSlotList = slots.values().toArray(new AtomicReference<?>[slots.size()]);
+        mLatestSlots = slots;
+        Log.d(LOG_TAG, "Coalescing " + eventType.getSimpleName());
+    }
+
+    /**
+     * The latest event among eventTypes is kept and replayed on register. Types describing
+     * the same state, like loaded and playing, go in the same call so only one is replayed.
+     */
+    public synchronized void retainLatest(Class<?>... eventTypes) {
+        Map<Class<?>, Integer> groups = new HashMap<>(mRetainedGroups);
+        int group = mRetainedEvents.length;
+        for (Class<?> eventType : eventTypes) {
+            groups.put(eventType, group);
+        }
+        mRetainedEvents = Arrays.copyOf(mRetainedEvents, group + 1);
+        mRetainedGroups = groups;
+    }
+
+    /**
+     * The latest event of eventType's retained group, or null. Main thread only.
+     */
+    public Object getRetained(Class<?> eventType) {
+        Integer group = mRetainedGroups.get(eventType);
+        return group != null ? mRetainedEvents[group] : null;
+    }
+
+    /**
+     * Forgets the latest event of eventType's retained group, e.g. when the state it
+     * describes is gone. Main thread only.
+     */
+    public void clearRetained(Class<?> eventType) {
+        Integer group = mRetainedGroups.get(eventType);
+        if (group != null) {
+            mRetainedEvents[group] = null;
+        }
+    }
+
     @Override
     public void post(final Object event) {
+        AtomicReference<Object> slot = mLatestSlots.get(event.getClass());
+
         if (Looper.myLooper() == Looper.getMainLooper()) {
-            super.post(event);
+            if (slot != null) {
+                //Whatever is pending for this type is older than this one
+                slot.set(null);
+            }
+            deliver(event);
+            return;
+        }
+
+        if (slot != null) {
+            slot.set(event);
         } else {
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    MainThreadBus.super.post(event);
+            synchronized (mPendingEvents) {
+                mPendingEvents.addLast(event);
+            }
+        }
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            mHandler.post(mDrainRunnable);
+        }
+    }
+
+    @Override
+    public synchronized void register(Object object) {
+        SubscriberDispatcher<Object> dispatcher = dispatcherFor(object.getClass());
+        if (dispatcher == null) {
+            super.register(object);
+            mOttoSubscriberCount++;
+            return;
+        }
+        if (indexOf(object) >= 0) {
+            throw new IllegalArgumentException("Object already registered.");
+        }
+        Subscription[] subscriptions = Arrays.copyOf(mSubscriptions, mSubscriptions.length + 1);
+        subscriptions[subscriptions.length - 1] = new Subscription(object, dispatcher);
+        mSubscriptions = subscriptions;
+        mSubscriptionsByEventType.clear();
+
+        replayRetained(object, dispatcher);
+    }
+
+    @Override
+    public synchronized void unregister(Object object) {
+        int index = indexOf(object);
+        if (index < 0) {
+            super.unregister(object);
+            mOttoSubscriberCount--;
+            return;
+        }
+        Subscription[] current = mSubscriptions;
+        //Not delivered anymore, even from a snapshot taken before this call
+        current[index].mActive = false;
+        Subscription[] subscriptions = new Subscription[current.length - 1];
+        System.arraycopy(current, 0, subscriptions, 0, index);
+        System.arraycopy(current, index + 1, subscriptions, index, current.length - index - 1);
+        mSubscriptions = subscriptions;
+        mSubscriptionsByEventType.clear();
+    }
+
+    /**
+     * Hands the retained state to a new subscriber, synchronously
+     */
+    private void replayRetained(Object target, SubscriberDispatcher<Object> dispatcher) {
+        for (Object event : mRetainedEvents) {
+            if (event != null && handles(dispatcher, event.getClass())) {
+                dispatcher.dispatch(target, event);
+            }
+        }
+    }
+
+    /**
+     * Delivers event on the main thread, to the indexed subscribers and then to Otto's
+     */
+    private void deliver(Object event) {
+        if (mDelivering) {
+            mNestedEvents.addLast(event);
+            return;
+        }
+        mDelivering = true;
+        try {
+            do {
+                Integer group = mRetainedGroups.get(event.getClass());
+                if (group != null) {
+                    mRetainedEvents[group] = event;
+                }
+                for (Subscription subscription : subscriptionsFor(event.getClass())) {
+                    if (subscription.mActive) {
+                        subscription.mDispatcher.dispatch(subscription.mTarget, event);
+                    }
+                }
+                if (mOttoSubscriberCount > 0) {
+                    super.post(event);
                 }
-            });
+            } while ((event = mNestedEvents.pollFirst()) != null);
+        } finally {
+            mDelivering = false;
+            mNestedEvents.clear();
         }
     }
 
+    private Subscription[] subscriptionsFor(Class<?> eventType) {
+        Subscription[] matching = mSubscriptionsByEventType.get(eventType);
+        if (matching != null) {
+            return matching;
+        }
+        List<Subscription> found = new ArrayList<>();
+        for (Subscription subscription : mSubscriptions) {
+            if (handles(subscription.mDispatcher, eventType)) {
+                found.add(subscription);
+            }
+        }
+        matching = found.isEmpty() ? NO_SUBSCRIPTIONS : found.toArray(new Subscription[found.size()]);
+        mSubscriptionsByEventType.put(eventType, matching);
+        return matching;
+    }
 
-}
+    private static boolean handles(SubscriberDispatcher<?> dispatcher, Class<?> eventType) {
+        for (Class<?> handledType : dispatcher.getEventTypes()) {
+            if (handledType.isAssignableFrom(eventType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int indexOf(Object object) {
+        Subscription[] subscriptions = mSubscriptions;
+        for (int i = 0; i < subscriptions.length; i++) {
+            if (subscriptions[i].mTarget == object) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The generated dispatcher for subscriberClass, or null to leave it to Otto. The class
+     * lookup is done once per subscriber class.
+     */
+    @SuppressWarnings("unchecked")
+    private static SubscriberDispatcher<Object> dispatcherFor(Class<?> subscriberClass) {
+        synchronized (sDispatchers) {
+            Object dispatcher = sDispatchers.get(subscriberClass);
+            if (dispatcher == null) {
+                try {
+                    dispatcher = Class.forName(subscriberClass.getName() + DISPATCHER_SUFFIX, true,
+                            subscriberClass.getClassLoader()).newInstance();
+                } catch (ClassNotFoundException e) {
+                    dispatcher = NO_DISPATCHER;
+                } catch (InstantiationException | IllegalAccessException e) {
+                    Log.w(LOG_TAG, "Unable to create the dispatcher for " + subscriberClass, e);
+                    dispatcher = NO_DISPATCHER;
+                }
+                sDispatchers.put(subscriberClass, dispatcher);
+            }
+            return dispatcher != NO_DISPATCHER ? (SubscriberDispatcher<Object>) dispatcher : null;
+        }
+    }
+
+    private static class Subscription {
+        final Object mTarget;
+        final SubscriberDispatcher<Object> mDispatcher;
+        volatile boolean mActive = true;
+
+        Subscription(Object target, SubscriberDispatcher<Object> dispatcher) {
+            mTarget = target;
+            mDispatcher = dispatcher;
+        }
+    }
 
+    private Object pollPendingEvent() {
+        synchronized (mPendingEvents) {
+            return mPendingEvents.pollFirst();
+        }
+    }
+}
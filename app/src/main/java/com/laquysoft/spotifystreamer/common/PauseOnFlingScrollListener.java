@@ -0,0 +1,30 @@
+package com.laquysoft.spotifystreamer.common;
+
+import android.content.Context;
+import android.support.v7.widget.RecyclerView;
+
+import com.squareup.picasso.Picasso;
+
+/**
+ * Pauses the image requests with the given tag while the list is flinging, rows flying
+ * by are not worth a decode. Dragging still loads, the user is looking at the rows.
+ */
+public class PauseOnFlingScrollListener extends RecyclerView.OnScrollListener {
+
+    private final Picasso mPicasso;
+    private final Object mTag;
+
+    public PauseOnFlingScrollListener(Context context, Object tag) {
+        mPicasso = Picasso.with(context);
+        mTag = tag;
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_SETTLING) {
+            mPicasso.pauseTag(mTag);
+        } else {
+            mPicasso.resumeTag(mTag);
+        }
+    }
+}
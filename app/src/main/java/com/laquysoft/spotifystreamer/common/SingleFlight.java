@@ -0,0 +1,134 @@
+package com.laquysoft.spotifystreamer.common;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller starts the work, callers
+ * arriving while it is in flight wait for it and get the same result, or the same error.
+ * <p/>
+ * The work runs on its own executor, detached from every caller. Interrupting a caller
+ * only abandons that caller's wait, the others still get the result.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, Flight> mInFlight = new ConcurrentHashMap<>();
+    private final Executor mExecutor;
+
+    /**
+     * @param executor runs the shared work, it must not queue behind the callers' threads
+     */
+    public SingleFlight(Executor executor) {
+        mExecutor = executor;
+    }
+
+    public V execute(K key, Callable<V> callable) {
+        while (true) {
+            Flight flight = join(key, callable);
+            try {
+                return flight.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for " + key);
+            } catch (CancellationException e) {
+                //Not cancelled by us: a prefetch dropped by its owner, or a call dropped by a
+                //full queue. Go again.
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    /**
+     * Starts the call on executor without waiting for it, unless one is already in flight.
+     * Cancelling the returned future cancels the call itself, callers that joined it
+     * meanwhile make a call of their own. Returns null if there was a call in flight.
+     */
+    public Future<V> prefetch(K key, Callable<V> callable, Executor executor) {
+        Flight flight = new Flight(key, callable, true);
+        Flight inFlight = mInFlight.putIfAbsent(key, flight);
+        while (inFlight != null && inFlight.isDone()) {
+            mInFlight.remove(key, inFlight);
+            inFlight = mInFlight.putIfAbsent(key, flight);
+        }
+        if (inFlight != null) {
+            return null;
+        }
+        start(flight, executor);
+        return flight;
+    }
+
+    private Flight join(K key, Callable<V> callable) {
+        Flight flight = new Flight(key, callable, false);
+        while (true) {
+            Flight inFlight = mInFlight.putIfAbsent(key, flight);
+            if (inFlight == null) {
+                start(flight, mExecutor);
+                return flight;
+            }
+            if (inFlight.isDone()) {
+                //Waiters are released before done() runs, a finished call may still be mapped
+                mInFlight.remove(key, inFlight);
+            } else if (inFlight.mPrefetch && inFlight.claim()) {
+                //A prefetch still queued behind other speculative work, don't wait for it
+                inFlight.cancel(false);
+                mInFlight.remove(key, inFlight);
+            } else {
+                return inFlight;
+            }
+        }
+    }
+
+    private void start(Flight flight, Executor executor) {
+        try {
+            executor.execute(flight);
+        } catch (RejectedExecutionException e) {
+            mInFlight.remove(flight.mKey, flight);
+            throw e;
+        }
+    }
+
+    private class Flight extends FutureTask<V> {
+
+        final K mKey;
+        final boolean mPrefetch;
+        //Taken by the thread that runs it, or by a caller that replaces a queued prefetch
+        private final AtomicBoolean mClaimed = new AtomicBoolean();
+
+        Flight(K key, Callable<V> callable, boolean prefetch) {
+            super(callable);
+            mKey = key;
+            mPrefetch = prefetch;
+        }
+
+        boolean claim() {
+            return mClaimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public void run() {
+            if (claim()) {
+                super.run();
+            }
+        }
+
+        @Override
+        protected void done() {
+            mInFlight.remove(mKey, this);
+        }
+    }
+}
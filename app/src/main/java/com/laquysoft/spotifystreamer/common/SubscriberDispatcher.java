@@ -0,0 +1,19 @@
+package com.laquysoft.spotifystreamer.common;
+
+/**
+ * Implemented by the classes the bus-compiler annotation processor generates for every
+ * class with Otto {@code @Subscribe} methods, named {@code <Target>$$SubscriberDispatcher}.
+ * It calls the handlers directly instead of through reflection.
+ */
+public interface SubscriberDispatcher<T> {
+
+    /**
+     * The event types the target has handlers for
+     */
+    Class<?>[] getEventTypes();
+
+    /**
+     * Calls every handler of target accepting event
+     */
+    void dispatch(T target, Object event);
+}
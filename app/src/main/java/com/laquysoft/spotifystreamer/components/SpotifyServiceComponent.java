@@ -1,7 +1,17 @@
 package com.laquysoft.spotifystreamer.components;
 
 
+import com.laquysoft.spotifystreamer.common.ImageSelector;
+import com.laquysoft.spotifystreamer.data.ArtistIndex;
+import com.laquysoft.spotifystreamer.data.CatalogStore;
+import com.laquysoft.spotifystreamer.data.SpotifyRepository;
+import com.laquysoft.spotifystreamer.data.TopTracksCache;
+import com.laquysoft.spotifystreamer.data.TopTracksPrefetcher;
 import com.laquysoft.spotifystreamer.modules.SpotifyServiceModule;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.picasso.Picasso;
+
+import javax.inject.Singleton;
 
 import dagger.Component;
 import kaaes.spotify.webapi.android.SpotifyService;
@@ -9,7 +19,24 @@ import kaaes.spotify.webapi.android.SpotifyService;
 /**
  * Created by joaobiriba on 04/08/15.
  */
+@Singleton
 @Component(modules = {SpotifyServiceModule.class})
 public interface SpotifyServiceComponent {
     SpotifyService provideSpotifyService();
+
+    OkHttpClient provideOkHttpClient();
+
+    Picasso providePicasso();
+
+    SpotifyRepository provideSpotifyRepository();
+
+    ArtistIndex provideArtistIndex();
+
+    ImageSelector provideImageSelector();
+
+    CatalogStore provideCatalogStore();
+
+    TopTracksCache provideTopTracksCache();
+
+    TopTracksPrefetcher provideTopTracksPrefetcher();
 }
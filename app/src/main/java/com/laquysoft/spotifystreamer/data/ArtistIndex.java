@@ -0,0 +1,130 @@
+package com.laquysoft.spotifystreamer.data;
+
+import com.laquysoft.spotifystreamer.model.ParcelableSpotifyObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * In-memory prefix index over the artists the app has already fetched, used to show
+ * local suggestions while a search is still on the network.
+ * <p/>
+ * The full name and every later word of it are stored as "text\0artistId" keys in a
+ * sorted array, so a lookup is a binary search followed by a short scan. The index keeps at most
+ * {@link #MAX_ARTISTS} artists and evicts the least recently used ones.
+ */
+@Singleton
+public class ArtistIndex {
+
+    public static final int MAX_ARTISTS = 500;
+
+    private static final char KEY_SEPARATOR = '\0';
+
+    //Access ordered, so the eldest entry is the least recently used artist
+    private final LinkedHashMap<String, ParcelableSpotifyObject> mArtists =
+            new LinkedHashMap<String, ParcelableSpotifyObject>(64, 0.75f, true);
+
+    private String[] mKeys = new String[0];
+
+    @Inject
+    public ArtistIndex() {
+    }
+
+    /**
+     * Adds or refreshes the given artists. Artist objects keep their id in mFatherName.
+     */
+    public synchronized void addAll(Collection<ParcelableSpotifyObject> artists) {
+        for (ParcelableSpotifyObject artist : artists) {
+            if (artist.mFatherName == null || artist.mName == null) {
+                continue;
+            }
+            mArtists.put(artist.mFatherName, artist);
+        }
+
+        Iterator<Map.Entry<String, ParcelableSpotifyObject>> eldest = mArtists.entrySet().iterator();
+        while (mArtists.size() > MAX_ARTISTS && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+
+        rebuildKeys();
+    }
+
+    /**
+     * Returns up to limit artists having a word of their name starting with prefix.
+     */
+    public synchronized List<ParcelableSpotifyObject> findByPrefix(String prefix, int limit) {
+        List<ParcelableSpotifyObject> result = new ArrayList<ParcelableSpotifyObject>();
+        String normalizedPrefix = normalize(prefix);
+        if (normalizedPrefix.isEmpty()) {
+            return result;
+        }
+
+        Set<String> seenIds = new LinkedHashSet<String>();
+        for (int i = lowerBound(normalizedPrefix); i < mKeys.length && seenIds.size() < limit; i++) {
+            String key = mKeys[i];
+            if (!key.startsWith(normalizedPrefix)) {
+                break;
+            }
+            seenIds.add(key.substring(key.indexOf(KEY_SEPARATOR) + 1));
+        }
+
+        for (String id : seenIds) {
+            ParcelableSpotifyObject artist = mArtists.get(id);
+            if (artist != null) {
+                result.add(artist);
+            }
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return mArtists.size();
+    }
+
+    private void rebuildKeys() {
+        List<String> keys = new ArrayList<String>(mArtists.size() * 2);
+        for (ParcelableSpotifyObject artist : mArtists.values()) {
+            String name = normalize(artist.mName);
+            keys.add(name + KEY_SEPARATOR + artist.mFatherName);
+
+            //The full name already covers the first word
+            String[] words = name.split("\\s+");
+            for (int i = 1; i < words.length; i++) {
+                keys.add(words[i] + KEY_SEPARATOR + artist.mFatherName);
+            }
+        }
+        String[] sortedKeys = keys.toArray(new String[keys.size()]);
+        Arrays.sort(sortedKeys);
+        mKeys = sortedKeys;
+    }
+
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = mKeys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mKeys[mid].compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static String normalize(String text) {
+        return text.trim().toLowerCase(Locale.ROOT);
+    }
+}
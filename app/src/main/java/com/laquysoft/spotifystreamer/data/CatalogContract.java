@@ -0,0 +1,64 @@
+package com.laquysoft.spotifystreamer.data;
+
+import android.provider.BaseColumns;
+
+/**
+ * Defines table and column names for the local catalog database.
+ */
+public class CatalogContract {
+
+    /* Inner class that defines the table contents of the artists table */
+    public static final class ArtistEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "artists";
+
+        // Spotify id of the artist
+        public static final String COLUMN_ARTIST_ID = "artist_id";
+        public static final String COLUMN_NAME = "name";
+        public static final String COLUMN_LARGE_THUMBNAIL_URL = "large_thumbnail_url";
+        public static final String COLUMN_SMALL_THUMBNAIL_URL = "small_thumbnail_url";
+        public static final String COLUMN_URI = "uri";
+        // Last time the row was written, in milliseconds since the epoch
+        public static final String COLUMN_UPDATED = "updated";
+    }
+
+    /* Inner class that defines the table contents of the tracks table */
+    public static final class TrackEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "tracks";
+
+        // Spotify id of the track
+        public static final String COLUMN_TRACK_ID = "track_id";
+        public static final String COLUMN_NAME = "name";
+        public static final String COLUMN_ALBUM_NAME = "album_name";
+        public static final String COLUMN_ARTIST_NAMES = "artist_names";
+        public static final String COLUMN_LARGE_THUMBNAIL_URL = "large_thumbnail_url";
+        public static final String COLUMN_SMALL_THUMBNAIL_URL = "small_thumbnail_url";
+        public static final String COLUMN_PREVIEW_URL = "preview_url";
+        public static final String COLUMN_UPDATED = "updated";
+    }
+
+    /* Ordered link between an artist and its top tracks for a country */
+    public static final class TopTrackEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "top_tracks";
+
+        public static final String COLUMN_ARTIST_ID = "artist_id";
+        public static final String COLUMN_COUNTRY = "country";
+        public static final String COLUMN_POSITION = "position";
+        public static final String COLUMN_TRACK_ID = "track_id";
+        public static final String COLUMN_UPDATED = "updated";
+    }
+
+    /* Ordered link between a search query and the artists it returned */
+    public static final class SearchResultEntry implements BaseColumns {
+
+        public static final String TABLE_NAME = "search_results";
+
+        public static final String COLUMN_QUERY = "query";
+        public static final String COLUMN_COUNTRY = "country";
+        public static final String COLUMN_POSITION = "position";
+        public static final String COLUMN_ARTIST_ID = "artist_id";
+        public static final String COLUMN_UPDATED = "updated";
+    }
+}
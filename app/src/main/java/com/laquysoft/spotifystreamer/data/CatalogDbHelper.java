@@ -0,0 +1,95 @@
+package com.laquysoft.spotifystreamer.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.laquysoft.spotifystreamer.data.CatalogContract.ArtistEntry;
+import com.laquysoft.spotifystreamer.data.CatalogContract.SearchResultEntry;
+import com.laquysoft.spotifystreamer.data.CatalogContract.TopTrackEntry;
+import com.laquysoft.spotifystreamer.data.CatalogContract.TrackEntry;
+
+/**
+ * Manages a local database for the artists and tracks the app has seen.
+ */
+public class CatalogDbHelper extends SQLiteOpenHelper {
+
+    // If you change the database schema, you must increment the database version.
+    private static final int DATABASE_VERSION = 1;
+
+    static final String DATABASE_NAME = "catalog.db";
+
+    public CatalogDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_ARTIST_TABLE = "CREATE TABLE " + ArtistEntry.TABLE_NAME + " (" +
+                ArtistEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                ArtistEntry.COLUMN_ARTIST_ID + " TEXT UNIQUE NOT NULL, " +
+                ArtistEntry.COLUMN_NAME + " TEXT NOT NULL, " +
+                ArtistEntry.COLUMN_LARGE_THUMBNAIL_URL + " TEXT, " +
+                ArtistEntry.COLUMN_SMALL_THUMBNAIL_URL + " TEXT, " +
+                ArtistEntry.COLUMN_URI + " TEXT, " +
+                ArtistEntry.COLUMN_UPDATED + " INTEGER NOT NULL" +
+                " );";
+
+        final String SQL_CREATE_TRACK_TABLE = "CREATE TABLE " + TrackEntry.TABLE_NAME + " (" +
+                TrackEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                TrackEntry.COLUMN_TRACK_ID + " TEXT UNIQUE NOT NULL, " +
+                TrackEntry.COLUMN_NAME + " TEXT NOT NULL, " +
+                TrackEntry.COLUMN_ALBUM_NAME + " TEXT, " +
+                TrackEntry.COLUMN_ARTIST_NAMES + " TEXT, " +
+                TrackEntry.COLUMN_LARGE_THUMBNAIL_URL + " TEXT, " +
+                TrackEntry.COLUMN_SMALL_THUMBNAIL_URL + " TEXT, " +
+                TrackEntry.COLUMN_PREVIEW_URL + " TEXT, " +
+                TrackEntry.COLUMN_UPDATED + " INTEGER NOT NULL" +
+                " );";
+
+        final String SQL_CREATE_TOP_TRACK_TABLE = "CREATE TABLE " + TopTrackEntry.TABLE_NAME + " (" +
+                TopTrackEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                TopTrackEntry.COLUMN_ARTIST_ID + " TEXT NOT NULL, " +
+                TopTrackEntry.COLUMN_COUNTRY + " TEXT NOT NULL, " +
+                TopTrackEntry.COLUMN_POSITION + " INTEGER NOT NULL, " +
+                TopTrackEntry.COLUMN_TRACK_ID + " TEXT NOT NULL, " +
+                TopTrackEntry.COLUMN_UPDATED + " INTEGER NOT NULL, " +
+                " UNIQUE (" + TopTrackEntry.COLUMN_ARTIST_ID + ", " + TopTrackEntry.COLUMN_COUNTRY + ", " +
+                TopTrackEntry.COLUMN_POSITION + ") ON CONFLICT REPLACE);";
+
+        final String SQL_CREATE_SEARCH_RESULT_TABLE = "CREATE TABLE " + SearchResultEntry.TABLE_NAME + " (" +
+                SearchResultEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                SearchResultEntry.COLUMN_QUERY + " TEXT NOT NULL, " +
+                SearchResultEntry.COLUMN_COUNTRY + " TEXT NOT NULL, " +
+                SearchResultEntry.COLUMN_POSITION + " INTEGER NOT NULL, " +
+                SearchResultEntry.COLUMN_ARTIST_ID + " TEXT NOT NULL, " +
+                SearchResultEntry.COLUMN_UPDATED + " INTEGER NOT NULL, " +
+                " UNIQUE (" + SearchResultEntry.COLUMN_QUERY + ", " + SearchResultEntry.COLUMN_COUNTRY + ", " +
+                SearchResultEntry.COLUMN_POSITION + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_ARTIST_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_TRACK_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_TOP_TRACK_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SEARCH_RESULT_TABLE);
+
+        // The unique constraints above already index lookups by artist/query; these
+        // serve the joins and the expiry job
+        sqLiteDatabase.execSQL("CREATE INDEX top_tracks_track_idx ON " + TopTrackEntry.TABLE_NAME +
+                " (" + TopTrackEntry.COLUMN_TRACK_ID + ");");
+        sqLiteDatabase.execSQL("CREATE INDEX search_results_artist_idx ON " + SearchResultEntry.TABLE_NAME +
+                " (" + SearchResultEntry.COLUMN_ARTIST_ID + ");");
+        sqLiteDatabase.execSQL("CREATE INDEX search_results_updated_idx ON " + SearchResultEntry.TABLE_NAME +
+                " (" + SearchResultEntry.COLUMN_UPDATED + ");");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // This database is only a cache for online data, so its upgrade policy is
+        // to simply to discard the data and start over
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArtistEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TrackEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TopTrackEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SearchResultEntry.TABLE_NAME);
+        onCreate(sqLiteDatabase);
+    }
+}
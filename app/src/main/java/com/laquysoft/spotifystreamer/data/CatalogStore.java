@@ -0,0 +1,231 @@
+package com.laquysoft.spotifystreamer.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.laquysoft.spotifystreamer.data.CatalogContract.ArtistEntry;
+import com.laquysoft.spotifystreamer.data.CatalogContract.SearchResultEntry;
+import com.laquysoft.spotifystreamer.data.CatalogContract.TopTrackEntry;
+import com.laquysoft.spotifystreamer.data.CatalogContract.TrackEntry;
+import com.laquysoft.spotifystreamer.model.ParcelableSpotifyObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Persistent store of the search results and top tracks fetched from the Web API, so the
+ * last results survive a cold start or process death. All methods hit the disk and must
+ * be called off the main thread.
+ */
+@Singleton
+public class CatalogStore {
+
+    private final CatalogDbHelper mDbHelper;
+
+    /**
+     * Last search found in the store
+     */
+    public static class SavedSearch {
+        public final String query;
+        public final String country;
+        public final ArrayList<ParcelableSpotifyObject> artists;
+
+        SavedSearch(String query, String country, ArrayList<ParcelableSpotifyObject> artists) {
+            this.query = query;
+            this.country = country;
+            this.artists = artists;
+        }
+    }
+
+    @Inject
+    public CatalogStore(Context context) {
+        mDbHelper = new CatalogDbHelper(context);
+    }
+
+    public void saveSearch(String query, String country, List<ParcelableSpotifyObject> artists) {
+        long now = System.currentTimeMillis();
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(SearchResultEntry.TABLE_NAME,
+                    SearchResultEntry.COLUMN_QUERY + " = ? AND " + SearchResultEntry.COLUMN_COUNTRY + " = ?",
+                    new String[]{query, country});
+
+            int position = 0;
+            for (ParcelableSpotifyObject artist : artists) {
+                if (artist.spotifyId == null) {
+                    continue;
+                }
+                ContentValues artistValues = new ContentValues();
+                artistValues.put(ArtistEntry.COLUMN_ARTIST_ID, artist.spotifyId);
+                artistValues.put(ArtistEntry.COLUMN_NAME, artist.mName);
+                artistValues.put(ArtistEntry.COLUMN_LARGE_THUMBNAIL_URL, artist.largeThumbnailUrl);
+                artistValues.put(ArtistEntry.COLUMN_SMALL_THUMBNAIL_URL, artist.smallThumbnailUrl);
+                artistValues.put(ArtistEntry.COLUMN_URI, artist.previewUrl);
+                artistValues.put(ArtistEntry.COLUMN_UPDATED, now);
+                db.insertWithOnConflict(ArtistEntry.TABLE_NAME, null, artistValues,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+
+                ContentValues linkValues = new ContentValues();
+                linkValues.put(SearchResultEntry.COLUMN_QUERY, query);
+                linkValues.put(SearchResultEntry.COLUMN_COUNTRY, country);
+                linkValues.put(SearchResultEntry.COLUMN_POSITION, position++);
+                linkValues.put(SearchResultEntry.COLUMN_ARTIST_ID, artist.spotifyId);
+                linkValues.put(SearchResultEntry.COLUMN_UPDATED, now);
+                db.insert(SearchResultEntry.TABLE_NAME, null, linkValues);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the most recent search, or null if nothing has been searched yet
+     */
+    public SavedSearch loadLastSearch() {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        String query;
+        String country;
+        Cursor cursor = db.query(SearchResultEntry.TABLE_NAME,
+                new String[]{SearchResultEntry.COLUMN_QUERY, SearchResultEntry.COLUMN_COUNTRY},
+                null, null, null, null, SearchResultEntry.COLUMN_UPDATED + " DESC", "1");
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            query = cursor.getString(0);
+            country = cursor.getString(1);
+        } finally {
+            cursor.close();
+        }
+
+        ArrayList<ParcelableSpotifyObject> artists = new ArrayList<ParcelableSpotifyObject>();
+        cursor = db.rawQuery("SELECT a." + ArtistEntry.COLUMN_ARTIST_ID +
+                ", a." + ArtistEntry.COLUMN_NAME +
+                ", a." + ArtistEntry.COLUMN_LARGE_THUMBNAIL_URL +
+                ", a." + ArtistEntry.COLUMN_SMALL_THUMBNAIL_URL +
+                ", a." + ArtistEntry.COLUMN_URI +
+                " FROM " + SearchResultEntry.TABLE_NAME + " s" +
+                " JOIN " + ArtistEntry.TABLE_NAME + " a ON a." + ArtistEntry.COLUMN_ARTIST_ID +
+                " = s." + SearchResultEntry.COLUMN_ARTIST_ID +
+                " WHERE s." + SearchResultEntry.COLUMN_QUERY + " = ? AND s." + SearchResultEntry.COLUMN_COUNTRY + " = ?" +
+                " ORDER BY s." + SearchResultEntry.COLUMN_POSITION,
+                new String[]{query, country});
+        try {
+            while (cursor.moveToNext()) {
+                String artistId = cursor.getString(0);
+                artists.add(new ParcelableSpotifyObject(artistId,
+                        cursor.getString(1),
+                        artistId,
+                        "",
+                        cursor.getString(2),
+                        cursor.getString(3),
+                        cursor.getString(4)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return new SavedSearch(query, country, artists);
+    }
+
+    public void saveTopTracks(String artistId, String country, List<ParcelableSpotifyObject> tracks) {
+        long now = System.currentTimeMillis();
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TopTrackEntry.TABLE_NAME,
+                    TopTrackEntry.COLUMN_ARTIST_ID + " = ? AND " + TopTrackEntry.COLUMN_COUNTRY + " = ?",
+                    new String[]{artistId, country});
+
+            int position = 0;
+            for (ParcelableSpotifyObject track : tracks) {
+                if (track.spotifyId == null) {
+                    continue;
+                }
+                ContentValues trackValues = new ContentValues();
+                trackValues.put(TrackEntry.COLUMN_TRACK_ID, track.spotifyId);
+                trackValues.put(TrackEntry.COLUMN_NAME, track.mName);
+                trackValues.put(TrackEntry.COLUMN_ALBUM_NAME, track.mFatherName);
+                trackValues.put(TrackEntry.COLUMN_ARTIST_NAMES, track.mArtistName);
+                trackValues.put(TrackEntry.COLUMN_LARGE_THUMBNAIL_URL, track.largeThumbnailUrl);
+                trackValues.put(TrackEntry.COLUMN_SMALL_THUMBNAIL_URL, track.smallThumbnailUrl);
+                trackValues.put(TrackEntry.COLUMN_PREVIEW_URL, track.previewUrl);
+                trackValues.put(TrackEntry.COLUMN_UPDATED, now);
+                db.insertWithOnConflict(TrackEntry.TABLE_NAME, null, trackValues,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+
+                ContentValues linkValues = new ContentValues();
+                linkValues.put(TopTrackEntry.COLUMN_ARTIST_ID, artistId);
+                linkValues.put(TopTrackEntry.COLUMN_COUNTRY, country);
+                linkValues.put(TopTrackEntry.COLUMN_POSITION, position++);
+                linkValues.put(TopTrackEntry.COLUMN_TRACK_ID, track.spotifyId);
+                linkValues.put(TopTrackEntry.COLUMN_UPDATED, now);
+                db.insert(TopTrackEntry.TABLE_NAME, null, linkValues);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the stored top tracks of the artist, or an empty list
+     */
+    public ArrayList<ParcelableSpotifyObject> loadTopTracks(String artistId, String country) {
+        ArrayList<ParcelableSpotifyObject> tracks = new ArrayList<ParcelableSpotifyObject>();
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery("SELECT t." + TrackEntry.COLUMN_TRACK_ID +
+                ", t." + TrackEntry.COLUMN_NAME +
+                ", t." + TrackEntry.COLUMN_ALBUM_NAME +
+                ", t." + TrackEntry.COLUMN_ARTIST_NAMES +
+                ", t." + TrackEntry.COLUMN_LARGE_THUMBNAIL_URL +
+                ", t." + TrackEntry.COLUMN_SMALL_THUMBNAIL_URL +
+                ", t." + TrackEntry.COLUMN_PREVIEW_URL +
+                " FROM " + TopTrackEntry.TABLE_NAME + " l" +
+                " JOIN " + TrackEntry.TABLE_NAME + " t ON t." + TrackEntry.COLUMN_TRACK_ID +
+                " = l." + TopTrackEntry.COLUMN_TRACK_ID +
+                " WHERE l." + TopTrackEntry.COLUMN_ARTIST_ID + " = ? AND l." + TopTrackEntry.COLUMN_COUNTRY + " = ?" +
+                " ORDER BY l." + TopTrackEntry.COLUMN_POSITION,
+                new String[]{artistId, country});
+        try {
+            while (cursor.moveToNext()) {
+                tracks.add(new ParcelableSpotifyObject(cursor.getString(0),
+                        cursor.getString(1),
+                        cursor.getString(2),
+                        cursor.getString(3),
+                        cursor.getString(4),
+                        cursor.getString(5),
+                        cursor.getString(6)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return tracks;
+    }
+
+    /**
+     * Expiry job: drops links older than maxAgeMs and the artists and tracks no longer
+     * referenced by any link
+     */
+    public void compact(long maxAgeMs) {
+        String[] cutoff = new String[]{String.valueOf(System.currentTimeMillis() - maxAgeMs)};
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(SearchResultEntry.TABLE_NAME, SearchResultEntry.COLUMN_UPDATED + " < ?", cutoff);
+            db.delete(TopTrackEntry.TABLE_NAME, TopTrackEntry.COLUMN_UPDATED + " < ?", cutoff);
+            db.delete(ArtistEntry.TABLE_NAME, ArtistEntry.COLUMN_ARTIST_ID + " NOT IN (SELECT " +
+                    SearchResultEntry.COLUMN_ARTIST_ID + " FROM " + SearchResultEntry.TABLE_NAME + ")", null);
+            db.delete(TrackEntry.TABLE_NAME, TrackEntry.COLUMN_TRACK_ID + " NOT IN (SELECT " +
+                    TopTrackEntry.COLUMN_TRACK_ID + " FROM " + TopTrackEntry.TABLE_NAME + ")", null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
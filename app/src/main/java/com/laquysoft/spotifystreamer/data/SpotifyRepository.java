@@ -0,0 +1,149 @@
+package com.laquysoft.spotifystreamer.data;
+
+import com.laquysoft.spotifystreamer.common.AppExecutors;
+import com.laquysoft.spotifystreamer.common.ImageSelector;
+import com.laquysoft.spotifystreamer.common.SingleFlight;
+import com.laquysoft.spotifystreamer.model.ParcelableSpotifyObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import kaaes.spotify.webapi.android.SpotifyService;
+import kaaes.spotify.webapi.android.models.Artist;
+import kaaes.spotify.webapi.android.models.ArtistsPager;
+import kaaes.spotify.webapi.android.models.Track;
+import kaaes.spotify.webapi.android.models.Tracks;
+
+/**
+ * Single entry point for the Web API calls of the app. Identical calls running at the
+ * same time, e.g. after a rotation or from the prefetcher, share one network request
+ * and one parsed result. A caller cancelled with an interrupt stops waiting, the shared
+ * request goes on for the others. Calls are blocking and throw RetrofitError like SpotifyService.
+ * Fetched top tracks are written through to the {@link CatalogStore}, searches once the
+ * user settles on them.
+ * <p/>
+ * The returned lists are shared between callers and must not be modified.
+ */
+@Singleton
+public class SpotifyRepository {
+
+    private final SpotifyService mSpotifyService;
+    private final TopTracksCache mTopTracksCache;
+    private final CatalogStore mCatalogStore;
+    private final ImageSelector mImageSelector;
+
+    private final SingleFlight<String, ArrayList<ParcelableSpotifyObject>> mSearches;
+    private final SingleFlight<String, ArrayList<ParcelableSpotifyObject>> mTopTracks;
+
+    @Inject
+    public SpotifyRepository(SpotifyService spotifyService, TopTracksCache topTracksCache,
+                             CatalogStore catalogStore, ImageSelector imageSelector,
+                             ExecutorService httpExecutor) {
+        mSpotifyService = spotifyService;
+        mTopTracksCache = topTracksCache;
+        mCatalogStore = catalogStore;
+        mImageSelector = imageSelector;
+        //The http pool: shared calls never wait behind the callers' pools
+        mSearches = new SingleFlight<>(httpExecutor);
+        mTopTracks = new SingleFlight<>(httpExecutor);
+    }
+
+    public ArrayList<ParcelableSpotifyObject> searchArtists(final String query, final String country) {
+        return mSearches.execute(query + '|' + country, new Callable<ArrayList<ParcelableSpotifyObject>>() {
+            @Override
+            public ArrayList<ParcelableSpotifyObject> call() {
+                //The market keeps results, and their cache entries, specific to the chosen country
+                Map<String, Object> options = new HashMap<>();
+                options.put("market", country);
+
+                ArtistsPager artistsPager = mSpotifyService.searchArtists(query, options);
+                ArrayList<ParcelableSpotifyObject> artists = new ArrayList<ParcelableSpotifyObject>();
+                for (Artist artist : artistsPager.artists.items) {
+                    artists.add(ParcelableSpotifyObject.fromArtist(artist, mImageSelector));
+                }
+                return artists;
+            }
+        });
+    }
+
+    public ArrayList<ParcelableSpotifyObject> getTopTracks(String artistId, String country) {
+        return mTopTracks.execute(artistId + '|' + country, topTracksCall(artistId, country));
+    }
+
+    /**
+     * Starts fetching the top tracks on executor without waiting for them, the result goes
+     * to the caches. Cancelling the returned future cancels the request itself. Returns
+     * null if they are already being fetched.
+     */
+    public Future<?> prefetchTopTracks(String artistId, String country, Executor executor) {
+        return mTopTracks.prefetch(artistId + '|' + country, topTracksCall(artistId, country), executor);
+    }
+
+    private Callable<ArrayList<ParcelableSpotifyObject>> topTracksCall(final String artistId, final String country) {
+        return new Callable<ArrayList<ParcelableSpotifyObject>>() {
+            @Override
+            public ArrayList<ParcelableSpotifyObject> call() {
+                Map<String, Object> options = new HashMap<>();
+                options.put("country", country);
+
+                Tracks result = mSpotifyService.getArtistTopTrack(artistId, options);
+                final ArrayList<ParcelableSpotifyObject> tracks = new ArrayList<ParcelableSpotifyObject>();
+                for (Track track : result.tracks) {
+                    tracks.add(ParcelableSpotifyObject.fromTrack(track, mImageSelector));
+                }
+                mTopTracksCache.put(artistId, country, tracks);
+                writeThrough(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCatalogStore.saveTopTracks(artistId, country, tracks);
+                    }
+                });
+                return tracks;
+            }
+        };
+    }
+
+    /**
+     * Persists a search the user submitted or settled on, not the prefixes typed on the way
+     */
+    public void saveSearch(final String query, final String country, final List<ParcelableSpotifyObject> artists) {
+        writeThrough(new Runnable() {
+            @Override
+            public void run() {
+                mCatalogStore.saveSearch(query, country, artists);
+            }
+        });
+    }
+
+    /**
+     * Last search persisted in the catalog store. Blocking, hits the disk.
+     */
+    public CatalogStore.SavedSearch loadLastSearch() {
+        return mCatalogStore.loadLastSearch();
+    }
+
+    /**
+     * Top tracks persisted in the catalog store, possibly stale. Blocking, hits the disk.
+     */
+    public ArrayList<ParcelableSpotifyObject> loadStoredTopTracks(String artistId, String country) {
+        ArrayList<ParcelableSpotifyObject> tracks = mCatalogStore.loadTopTracks(artistId, country);
+        if (!tracks.isEmpty()) {
+            mTopTracksCache.put(artistId, country, tracks);
+        }
+        return tracks;
+    }
+
+    private static void writeThrough(Runnable write) {
+        //Don't make the caller wait for the disk
+        AppExecutors.disk().execute(write);
+    }
+}
@@ -0,0 +1,42 @@
+package com.laquysoft.spotifystreamer.data;
+
+import android.support.v4.util.LruCache;
+
+import com.laquysoft.spotifystreamer.model.ParcelableSpotifyObject;
+
+import java.util.ArrayList;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Bounded in-memory cache of top track lists, keyed by artist id and country.
+ */
+@Singleton
+public class TopTracksCache {
+
+    private static final int MAX_ARTISTS = 30;
+
+    private final LruCache<String, ArrayList<ParcelableSpotifyObject>> mCache =
+            new LruCache<String, ArrayList<ParcelableSpotifyObject>>(MAX_ARTISTS);
+
+    @Inject
+    public TopTracksCache() {
+    }
+
+    public ArrayList<ParcelableSpotifyObject> get(String artistId, String country) {
+        return mCache.get(key(artistId, country));
+    }
+
+    public void put(String artistId, String country, ArrayList<ParcelableSpotifyObject> tracks) {
+        mCache.put(key(artistId, country), tracks);
+    }
+
+    public boolean contains(String artistId, String country) {
+        return get(artistId, country) != null;
+    }
+
+    private static String key(String artistId, String country) {
+        return artistId + '|' + country;
+    }
+}
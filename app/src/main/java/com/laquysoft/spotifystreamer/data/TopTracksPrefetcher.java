@@ -0,0 +1,63 @@
+package com.laquysoft.spotifystreamer.data;
+
+import com.laquysoft.spotifystreamer.common.AppExecutors;
+import com.laquysoft.spotifystreamer.model.ParcelableSpotifyObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Fetches in background the top tracks of the first artists of a search result, so that
+ * opening one of them can be served by the {@link TopTracksCache}.
+ */
+@Singleton
+public class TopTracksPrefetcher {
+
+    public static final int PREFETCH_COUNT = 3;
+    private final SpotifyRepository mSpotifyRepository;
+    private final TopTracksCache mTopTracksCache;
+    private final List<Future<?>> mPendingFetches = new ArrayList<Future<?>>();
+
+    @Inject
+    public TopTracksPrefetcher(SpotifyRepository spotifyRepository, TopTracksCache topTracksCache) {
+        mSpotifyRepository = spotifyRepository;
+        mTopTracksCache = topTracksCache;
+    }
+
+    /**
+     * Replaces any pending prefetch with the first {@link #PREFETCH_COUNT} artists given.
+     * Artists keep their id in mFatherName.
+     */
+    public synchronized void prefetch(List<ParcelableSpotifyObject> artists, String country) {
+        cancel();
+
+        int count = Math.min(PREFETCH_COUNT, artists.size());
+        for (int i = 0; i < count; i++) {
+            String artistId = artists.get(i).mFatherName;
+            if (artistId == null || mTopTracksCache.contains(artistId, country)) {
+                continue;
+            }
+            //The requests themselves run on the prefetch pool, so it bounds how many run at
+            //once and cancelling stops them. TopTenTracksFragment joins one if the user opens
+            //the artist meanwhile.
+            Future<?> fetch = mSpotifyRepository.prefetchTopTracks(artistId, country, AppExecutors.prefetch());
+            if (fetch != null) {
+                mPendingFetches.add(fetch);
+            }
+        }
+    }
+
+    /**
+     * Drops the prefetches of a search the user moved away from
+     */
+    public synchronized void cancel() {
+        for (Future<?> future : mPendingFetches) {
+            future.cancel(true);
+        }
+        mPendingFetches.clear();
+    }
+}
@@ -0,0 +1,18 @@
+package com.laquysoft.spotifystreamer.events;
+
+public class PlayerVisibilityEvent {
+
+    boolean mVisible;
+
+    public PlayerVisibilityEvent(boolean visible) {
+        mVisible = visible;
+    }
+
+    public boolean isVisible() {
+        return mVisible;
+    }
+
+    public static PlayerVisibilityEvent newInstance(boolean visible) {
+        return new PlayerVisibilityEvent(visible);
+    }
+}
@@ -15,6 +15,14 @@ public class TrackPlayingEvent {
         mProgress = progress;
     }
 
+    /**
+     * Lets the publisher reuse one instance instead of allocating one per progress tick
+     */
+    public void update(ParcelableSpotifyObject track, int progress) {
+        mTrack = track;
+        mProgress = progress;
+    }
+
     public ParcelableSpotifyObject getTrack() {
         return mTrack;
     }
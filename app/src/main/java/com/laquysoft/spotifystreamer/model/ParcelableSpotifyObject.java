@@ -3,6 +3,12 @@ package com.laquysoft.spotifystreamer.model;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import com.laquysoft.spotifystreamer.common.ImageSelector;
+
+import kaaes.spotify.webapi.android.models.Artist;
+import kaaes.spotify.webapi.android.models.ArtistSimple;
+import kaaes.spotify.webapi.android.models.Track;
+
 /**
  * Created by joaobiriba on 16/06/15.
  */
@@ -14,9 +20,16 @@ public class ParcelableSpotifyObject implements Parcelable {
     public String largeThumbnailUrl;
     public String smallThumbnailUrl;
     public String previewUrl;
+    public String spotifyId;
 
     public ParcelableSpotifyObject(String name, String mFatherName, String mArtistName, String largeThumbnailUrl,
                                    String smallThumbnailUrl, String previewUrl) {
+        this(null, name, mFatherName, mArtistName, largeThumbnailUrl, smallThumbnailUrl, previewUrl);
+    }
+
+    public ParcelableSpotifyObject(String spotifyId, String name, String mFatherName, String mArtistName,
+                                   String largeThumbnailUrl, String smallThumbnailUrl, String previewUrl) {
+        this.spotifyId = spotifyId;
         this.mName = name;
         this.mFatherName = mFatherName;
         this.mArtistName = mArtistName;
@@ -25,6 +38,34 @@ public class ParcelableSpotifyObject implements Parcelable {
         this.previewUrl = previewUrl;
     }
 
+    /**
+     * Factory methods, the image variants are chosen for the player (large) and the list rows (small)
+     */
+    public static ParcelableSpotifyObject fromArtist(Artist artist, ImageSelector imageSelector) {
+        return new ParcelableSpotifyObject(artist.id,
+                artist.name,
+                artist.id,
+                "",
+                imageSelector.playerArtUrl(artist.images),
+                imageSelector.listThumbnailUrl(artist.images),
+                artist.uri);
+    }
+
+    public static ParcelableSpotifyObject fromTrack(Track track, ImageSelector imageSelector) {
+        StringBuilder builder = new StringBuilder();
+        for (ArtistSimple artist : track.artists) {
+            if (builder.length() > 0) builder.append(", ");
+            builder.append(artist.name);
+        }
+        return new ParcelableSpotifyObject(track.id,
+                track.name,
+                track.album.name,
+                builder.toString(),
+                imageSelector.playerArtUrl(track.album.images),
+                imageSelector.listThumbnailUrl(track.album.images),
+                track.preview_url);
+    }
+
     private ParcelableSpotifyObject(Parcel in) {
         mName = in.readString();
         mFatherName = in.readString();
@@ -32,6 +73,7 @@ public class ParcelableSpotifyObject implements Parcelable {
         largeThumbnailUrl = in.readString();
         smallThumbnailUrl = in.readString();
         previewUrl = in.readString();
+        spotifyId = in.readString();
     }
 
 
@@ -47,6 +89,43 @@ public class ParcelableSpotifyObject implements Parcelable {
         }
     };
 
+    /**
+     * Value equality, so a refreshed list can be compared with the one on screen
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ParcelableSpotifyObject)) {
+            return false;
+        }
+        ParcelableSpotifyObject that = (ParcelableSpotifyObject) o;
+        return equal(spotifyId, that.spotifyId)
+                && equal(mName, that.mName)
+                && equal(mFatherName, that.mFatherName)
+                && equal(mArtistName, that.mArtistName)
+                && equal(largeThumbnailUrl, that.largeThumbnailUrl)
+                && equal(smallThumbnailUrl, that.smallThumbnailUrl)
+                && equal(previewUrl, that.previewUrl);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = spotifyId != null ? spotifyId.hashCode() : 0;
+        result = 31 * result + (mName != null ? mName.hashCode() : 0);
+        result = 31 * result + (mFatherName != null ? mFatherName.hashCode() : 0);
+        result = 31 * result + (mArtistName != null ? mArtistName.hashCode() : 0);
+        result = 31 * result + (largeThumbnailUrl != null ? largeThumbnailUrl.hashCode() : 0);
+        result = 31 * result + (smallThumbnailUrl != null ? smallThumbnailUrl.hashCode() : 0);
+        result = 31 * result + (previewUrl != null ? previewUrl.hashCode() : 0);
+        return result;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     @Override
     public int describeContents() {
         return 0;
@@ -60,5 +139,6 @@ public class ParcelableSpotifyObject implements Parcelable {
         dest.writeString(this.largeThumbnailUrl);
         dest.writeString(this.smallThumbnailUrl);
         dest.writeString(this.previewUrl);
+        dest.writeString(this.spotifyId);
     }
 }
@@ -1,11 +1,33 @@
 package com.laquysoft.spotifystreamer.modules;
 
-import javax.inject.Named;
+import android.app.ActivityManager;
+import android.content.Context;
+import android.util.Log;
+
+import com.laquysoft.spotifystreamer.common.AppExecutors;
+import com.laquysoft.spotifystreamer.common.CacheTtlInterceptor;
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Dispatcher;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.picasso.LruCache;
+import com.squareup.picasso.OkHttpDownloader;
+import com.squareup.picasso.Picasso;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
 import kaaes.spotify.webapi.android.SpotifyApi;
 import kaaes.spotify.webapi.android.SpotifyService;
+import retrofit.RestAdapter;
+import retrofit.android.MainThreadExecutor;
+import retrofit.client.OkClient;
 
 /**
  * Created by joaobiriba on 04/08/15.
@@ -13,8 +35,93 @@ import kaaes.spotify.webapi.android.SpotifyService;
 @Module
 public class SpotifyServiceModule {
 
+    private static final String LOG_TAG = SpotifyServiceModule.class.getSimpleName();
+
+    private static final String HTTP_CACHE_DIR = "spotify-http";
+    private static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024;
+
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_DURATION_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final int CONNECT_TIMEOUT_SECONDS = 15;
+    private static final int READ_TIMEOUT_SECONDS = 20;
+
+    private static final String IMAGE_CACHE_DIR = "picasso";
+    private static final long IMAGE_CACHE_SIZE = 25 * 1024 * 1024;
+    //Same share of the heap Picasso picks by default, but sized from the actual memory class
+    private static final int IMAGE_MEMORY_CACHE_HEAP_FRACTION = 7;
+
+    private final Context mContext;
+
+    public SpotifyServiceModule(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
     @Provides
-    SpotifyService provideSpotifyService() {
-        return new SpotifyApi().getService();
+    Context provideContext() {
+        return mContext;
+    }
+
+    @Provides @Singleton
+    ExecutorService provideHttpExecutor() {
+        return AppExecutors.http();
+    }
+
+    @Provides @Singleton
+    OkHttpClient provideOkHttpClient(ExecutorService httpExecutor) {
+        OkHttpClient okHttpClient = newPooledClient(httpExecutor);
+
+        try {
+            okHttpClient.setCache(new Cache(new File(mContext.getCacheDir(), HTTP_CACHE_DIR), HTTP_CACHE_SIZE));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to open the http cache", e);
+        }
+        okHttpClient.networkInterceptors().add(new CacheTtlInterceptor());
+
+        return okHttpClient;
+    }
+
+    /**
+     * Client with the app pool and dispatcher settings, without the disk cache
+     */
+    static OkHttpClient newPooledClient(ExecutorService httpExecutor) {
+        OkHttpClient okHttpClient = new OkHttpClient();
+
+        //One pool and one dispatcher for the whole app, so TCP/TLS connections get reused
+        okHttpClient.setConnectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MS));
+        okHttpClient.setDispatcher(new Dispatcher(httpExecutor));
+        okHttpClient.setConnectTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        okHttpClient.setReadTimeout(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        return okHttpClient;
+    }
+
+    @Provides @Singleton
+    Picasso providePicasso(OkHttpClient okHttpClient) {
+        //Shares the connection pool, but images get their own disk cache so they can't evict api responses
+        OkHttpClient imageClient = okHttpClient.clone();
+        try {
+            imageClient.setCache(new Cache(new File(mContext.getCacheDir(), IMAGE_CACHE_DIR), IMAGE_CACHE_SIZE));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Unable to open the image cache", e);
+            imageClient.setCache(null);
+        }
+
+        ActivityManager activityManager = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryCacheBytes = activityManager.getMemoryClass() * 1024 * 1024 / IMAGE_MEMORY_CACHE_HEAP_FRACTION;
+
+        return new Picasso.Builder(mContext)
+                .memoryCache(new LruCache(memoryCacheBytes))
+                .downloader(new OkHttpDownloader(imageClient))
+                .build();
+    }
+
+    @Provides @Singleton
+    SpotifyService provideSpotifyService(OkHttpClient okHttpClient, ExecutorService httpExecutor) {
+        RestAdapter restAdapter = new RestAdapter.Builder()
+                .setEndpoint(SpotifyApi.SPOTIFY_WEB_API_ENDPOINT)
+                .setClient(new OkClient(okHttpClient))
+                .setExecutors(httpExecutor, new MainThreadExecutor())
+                .build();
+
+        return restAdapter.create(SpotifyService.class);
     }
 }
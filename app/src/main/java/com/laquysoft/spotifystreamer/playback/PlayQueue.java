@@ -0,0 +1,192 @@
+package com.laquysoft.spotifystreamer.playback;
+
+import com.laquysoft.spotifystreamer.model.ParcelableSpotifyObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The tracks the service plays, with a cursor on the current one. Tracks are addressed by
+ * queue position, never by equality, so the same track can be queued more than once.
+ * Current, next and previous are O(1).
+ * <p/>
+ * The play order depends on the mode. Outside shuffle it is the queue order and nothing
+ * is stored for it. Shuffle keeps a precomputed permutation of the positions, plus its
+ * inverse, so shuffle navigation is O(1) too.
+ * <p/>
+ * Not thread safe, the service only touches it from the main thread.
+ */
+public class PlayQueue {
+
+    public static final int NO_POSITION = -1;
+
+    public static final int MODE_SEQUENTIAL = 0;
+    public static final int MODE_REPEAT_ONE = 1;
+    public static final int MODE_REPEAT_ALL = 2;
+    public static final int MODE_SHUFFLE = 3;
+    private static final int MODE_COUNT = 4;
+
+    private final ArrayList<ParcelableSpotifyObject> mTracks = new ArrayList<>();
+    private int mCurrent = NO_POSITION;
+    private int mMode = MODE_SEQUENTIAL;
+    private final Random mRandom = new Random();
+
+    //Shuffle only: mOrder[rank] is the position played at that rank, mRank[position] is its inverse
+    private int[] mOrder;
+    private int[] mRank;
+
+    /**
+     * Replaces the queue, nothing is current until {@link #moveTo(int)}
+     */
+    public void setTracks(List<ParcelableSpotifyObject> tracks) {
+        mTracks.clear();
+        if (tracks != null) {
+            mTracks.addAll(tracks);
+        }
+        mCurrent = NO_POSITION;
+        rebuildOrder();
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    public void setMode(int mode) {
+        if (mode < 0 || mode >= MODE_COUNT || mode == mMode) {
+            return;
+        }
+        mMode = mode;
+        rebuildOrder();
+    }
+
+    /**
+     * The mode following mode, for a control cycling through them
+     */
+    public static int nextMode(int mode) {
+        return (mode + 1) % MODE_COUNT;
+    }
+
+    public List<ParcelableSpotifyObject> getTracks() {
+        return Collections.unmodifiableList(mTracks);
+    }
+
+    public int size() {
+        return mTracks.size();
+    }
+
+    public boolean isEmpty() {
+        return mTracks.isEmpty();
+    }
+
+    public boolean isValidPosition(int position) {
+        return position >= 0 && position < mTracks.size();
+    }
+
+    public ParcelableSpotifyObject get(int position) {
+        return mTracks.get(position);
+    }
+
+    public int getCurrentPosition() {
+        return mCurrent;
+    }
+
+    public ParcelableSpotifyObject getCurrent() {
+        return isValidPosition(mCurrent) ? mTracks.get(mCurrent) : null;
+    }
+
+    /**
+     * Makes position the current entry. Returns its track, or null if out of range.
+     * In shuffle mode, jumping outside the play order starts a new shuffle from there.
+     */
+    public ParcelableSpotifyObject moveTo(int position) {
+        if (!isValidPosition(position)) {
+            return null;
+        }
+        boolean jump = mMode == MODE_SHUFFLE && position != mCurrent
+                && position != peek(1) && position != peek(-1);
+        mCurrent = position;
+        if (jump) {
+            rebuildOrder();
+        }
+        return mTracks.get(position);
+    }
+
+    /**
+     * Next position when the user skips forward
+     */
+    public int getNextPosition() {
+        return peek(1);
+    }
+
+    /**
+     * Position to play when the current track completes: repeat one plays it again
+     */
+    public int getAutoAdvancePosition() {
+        if (mMode == MODE_REPEAT_ONE) {
+            return mCurrent;
+        }
+        return peek(1);
+    }
+
+    public int getPreviousPosition() {
+        return peek(-1);
+    }
+
+    /**
+     * Position of the entry offset steps away from the current one in play order, or
+     * NO_POSITION. Repeat all wraps around.
+     */
+    public int peek(int offset) {
+        if (mCurrent == NO_POSITION) {
+            return NO_POSITION;
+        }
+        int size = mTracks.size();
+        int rank = (mMode == MODE_SHUFFLE ? mRank[mCurrent] : mCurrent) + offset;
+        if (mMode == MODE_REPEAT_ALL) {
+            rank = ((rank % size) + size) % size;
+        } else if (rank < 0 || rank >= size) {
+            return NO_POSITION;
+        }
+        return mMode == MODE_SHUFFLE ? mOrder[rank] : rank;
+    }
+
+    /**
+     * A fresh shuffle that starts from the current entry, nothing outside shuffle. O(n),
+     * only done when the tracks or the mode change, or on a jump outside the shuffled order.
+     */
+    private void rebuildOrder() {
+        if (mMode != MODE_SHUFFLE) {
+            mOrder = null;
+            mRank = null;
+            return;
+        }
+
+        int size = mTracks.size();
+        mOrder = new int[size];
+        for (int i = 0; i < size; i++) {
+            mOrder[i] = i;
+        }
+
+        int first = 0;
+        if (mCurrent != NO_POSITION && size > 1) {
+            //The current track stays first, what follows it is shuffled
+            mOrder[mCurrent] = 0;
+            mOrder[0] = mCurrent;
+            first = 1;
+        }
+        //Fisher-Yates
+        for (int i = size - 1; i > first; i--) {
+            int j = first + mRandom.nextInt(i - first + 1);
+            int swap = mOrder[i];
+            mOrder[i] = mOrder[j];
+            mOrder[j] = swap;
+        }
+
+        mRank = new int[size];
+        for (int rank = 0; rank < size; rank++) {
+            mRank[mOrder[rank]] = rank;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.laquysoft.spotifystreamer.playback;
+
+import com.laquysoft.spotifystreamer.model.ParcelableSpotifyObject;
+
+import java.util.List;
+
+/**
+ * In-process control of the playback service, handed out by its binder. Calls are plain
+ * method calls on the main thread: no Intent, and the track list is not parceled.
+ */
+public interface PlaybackController {
+
+    /**
+     * Told when the current track or its play state changes
+     */
+    interface Listener {
+        void onPlaybackStateChanged(ParcelableSpotifyObject track, boolean playing);
+    }
+
+    void setTracks(List<ParcelableSpotifyObject> tracks);
+
+    void playTrack(int position);
+
+    void pause();
+
+    void resume();
+
+    void playNext();
+
+    void playPrevious();
+
+    void seekTo(int positionMs);
+
+    void setPlayMode(int playMode);
+
+    /**
+     * Posts the current track again, restoring the last session if there is none
+     */
+    void broadcastCurrentTrack();
+
+    boolean isPlaying();
+
+    /**
+     * The listener is told the current state right away
+     */
+    void addListener(Listener listener);
+
+    void removeListener(Listener listener);
+}
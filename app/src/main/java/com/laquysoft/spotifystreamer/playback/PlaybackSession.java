@@ -0,0 +1,222 @@
+package com.laquysoft.spotifystreamer.playback;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.laquysoft.spotifystreamer.common.AppExecutors;
+import com.laquysoft.spotifystreamer.model.ParcelableSpotifyObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Snapshot of the playback session, so the service can pick up where it was after the
+ * process is killed. It is written in two parts:
+ * <ul>
+ * <li>the queue, to a small binary file, only when the queue changes</li>
+ * <li>position in the queue, playback position and mode, to a dedicated preferences
+ * file with apply(), every time they change</li>
+ * </ul>
+ * Nothing here touches the disk on the calling thread.
+ */
+public class PlaybackSession {
+
+    private static final String LOG_TAG = PlaybackSession.class.getSimpleName();
+
+    private static final String QUEUE_FILE = "playback_queue";
+    private static final String PREFS_NAME = "playback_session";
+    private static final String KEY_QUEUE_POSITION = "queue_position";
+    private static final String KEY_PLAYBACK_POSITION_MS = "playback_position_ms";
+    private static final String KEY_PLAY_MODE = "play_mode";
+    private static final int QUEUE_FILE_VERSION = 1;
+
+    /**
+     * What the last session left behind
+     */
+    public static class Snapshot {
+        public final ArrayList<ParcelableSpotifyObject> tracks;
+        public final int queuePosition;
+        public final int playbackPositionMs;
+        public final int playMode;
+
+        Snapshot(ArrayList<ParcelableSpotifyObject> tracks, int queuePosition,
+                 int playbackPositionMs, int playMode) {
+            this.tracks = tracks;
+            this.queuePosition = queuePosition;
+            this.playbackPositionMs = playbackPositionMs;
+            this.playMode = playMode;
+        }
+    }
+
+    public interface Callback {
+        /**
+         * Called on the main thread, with null if there is no session to restore
+         */
+        void onSessionLoaded(Snapshot snapshot);
+    }
+
+    private final Context mContext;
+    private final File mQueueFile;
+    //Only used on the disk executor, its first load would block the thread asking for it
+    private SharedPreferences mPreferences;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    //Only the latest queue is worth writing, older pending writes are skipped
+    private final AtomicInteger mQueueVersion = new AtomicInteger();
+
+    public PlaybackSession(Context context) {
+        mContext = context.getApplicationContext();
+        mQueueFile = new File(context.getFilesDir(), QUEUE_FILE);
+        //Preloaded, so the first save or load doesn't wait for it
+        AppExecutors.disk().execute(new Runnable() {
+            @Override
+            public void run() {
+                preferences().contains(KEY_QUEUE_POSITION);
+            }
+        });
+    }
+
+    public void saveQueue(List<ParcelableSpotifyObject> tracks) {
+        final int version = mQueueVersion.incrementAndGet();
+        final ArrayList<ParcelableSpotifyObject> snapshot = new ArrayList<>(tracks);
+        AppExecutors.disk().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (version != mQueueVersion.get()) {
+                    return;
+                }
+                try {
+                    writeQueue(snapshot);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Unable to save the play queue", e);
+                }
+            }
+        });
+    }
+
+    public void savePosition(final int queuePosition, final int playbackPositionMs, final int playMode) {
+        AppExecutors.disk().execute(new Runnable() {
+            @Override
+            public void run() {
+                preferences().edit()
+                        .putInt(KEY_QUEUE_POSITION, queuePosition)
+                        .putInt(KEY_PLAYBACK_POSITION_MS, playbackPositionMs)
+                        .putInt(KEY_PLAY_MODE, playMode)
+                        .apply();
+            }
+        });
+    }
+
+    public void load(final Callback callback) {
+        AppExecutors.disk().execute(new Runnable() {
+            @Override
+            public void run() {
+                Snapshot snapshot = null;
+                try {
+                    ArrayList<ParcelableSpotifyObject> tracks = readQueue();
+                    if (tracks != null && !tracks.isEmpty()) {
+                        SharedPreferences preferences = preferences();
+                        snapshot = new Snapshot(tracks,
+                                preferences.getInt(KEY_QUEUE_POSITION, 0),
+                                preferences.getInt(KEY_PLAYBACK_POSITION_MS, 0),
+                                preferences.getInt(KEY_PLAY_MODE, PlayQueue.MODE_SEQUENTIAL));
+                    }
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Unable to restore the play queue", e);
+                }
+
+                final Snapshot result = snapshot;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSessionLoaded(result);
+                    }
+                });
+            }
+        });
+    }
+
+    private SharedPreferences preferences() {
+        if (mPreferences == null) {
+            mPreferences = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        }
+        return mPreferences;
+    }
+
+    private void writeQueue(List<ParcelableSpotifyObject> tracks) throws IOException {
+        File tempFile = new File(mQueueFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(QUEUE_FILE_VERSION);
+            out.writeInt(tracks.size());
+            for (ParcelableSpotifyObject track : tracks) {
+                writeString(out, track.spotifyId);
+                writeString(out, track.mName);
+                writeString(out, track.mFatherName);
+                writeString(out, track.mArtistName);
+                writeString(out, track.largeThumbnailUrl);
+                writeString(out, track.smallThumbnailUrl);
+                writeString(out, track.previewUrl);
+            }
+        } finally {
+            out.close();
+        }
+
+        //A crash while writing leaves the previous queue intact
+        if (!tempFile.renameTo(mQueueFile)) {
+            tempFile.delete();
+            throw new IOException("Unable to replace " + mQueueFile);
+        }
+    }
+
+    private ArrayList<ParcelableSpotifyObject> readQueue() throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mQueueFile)));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            if (in.readInt() != QUEUE_FILE_VERSION) {
+                return null;
+            }
+            int count = in.readInt();
+            ArrayList<ParcelableSpotifyObject> tracks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                tracks.add(new ParcelableSpotifyObject(readString(in),
+                        readString(in),
+                        readString(in),
+                        readString(in),
+                        readString(in),
+                        readString(in),
+                        readString(in)));
+            }
+            return tracks;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
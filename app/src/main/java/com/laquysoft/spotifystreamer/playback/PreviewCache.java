@@ -0,0 +1,290 @@
+package com.laquysoft.spotifystreamer.playback;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.laquysoft.spotifystreamer.common.AppExecutors;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Disk cache for the 30 seconds track previews, so replays and jumps between queued
+ * tracks are served from local storage. Entries are evicted least recently used first
+ * once the cache grows over {@link #MAX_CACHE_BYTES}.
+ */
+public class PreviewCache {
+
+    private static final String LOG_TAG = PreviewCache.class.getSimpleName();
+
+    private static final String PREVIEW_CACHE_DIR = "previews";
+    private static final long MAX_CACHE_BYTES = 30 * 1024 * 1024;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final OkHttpClient mOkHttpClient;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    //Callbacks waiting on the downloads in progress, by url
+    private final Map<String, List<Callback>> mDownloads = new HashMap<>();
+    //Names of the complete entries, so lookups from the main thread don't touch the disk
+    private final Set<String> mEntries = Collections.synchronizedSet(new HashSet<String>());
+
+    public PreviewCache(Context context, OkHttpClient okHttpClient) {
+        mDirectory = new File(context.getCacheDir(), PREVIEW_CACHE_DIR);
+        //Same connection pool, but keep audio out of the api response cache
+        mOkHttpClient = okHttpClient.clone();
+        mOkHttpClient.setCache(null);
+
+        AppExecutors.disk().execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = listEntries();
+                if (files != null) {
+                    for (File file : files) {
+                        mEntries.add(file.getName());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the cached preview for url, or null if it has not been downloaded yet.
+     * No disk access on the calling thread.
+     */
+    public File get(String url) {
+        if (url == null || url.isEmpty()) {
+            return null;
+        }
+        final File file = fileFor(url);
+        if (!mEntries.contains(file.getName())) {
+            return null;
+        }
+        AppExecutors.disk().execute(new Runnable() {
+            @Override
+            public void run() {
+                //Last modified time doubles as last access time for the eviction
+                file.setLastModified(System.currentTimeMillis());
+            }
+        });
+        return file;
+    }
+
+    /**
+     * Forgets the entry for url, e.g. when its file turned out to be gone
+     */
+    public void evict(String url) {
+        if (url != null && !url.isEmpty()) {
+            mEntries.remove(fileFor(url).getName());
+        }
+    }
+
+    /**
+     * Hears the outcome of {@link #fetch}, on the main thread
+     */
+    public interface Callback {
+        /**
+         * @param cached false if the download failed, the preview can still be streamed
+         */
+        void onPreviewFetched(String url, boolean cached);
+    }
+
+    /**
+     * Downloads the preview in background, unless it is already cached or on its way
+     */
+    public void prefetch(String url) {
+        download(url, null, AppExecutors.prefetch());
+    }
+
+    /**
+     * Downloads the preview the player is waiting for, ahead of the prefetches, or joins
+     * the download already on its way
+     */
+    public void fetch(String url, Callback callback) {
+        download(url, callback, AppExecutors.playback());
+    }
+
+    private void download(final String url, Callback callback, Executor executor) {
+        if (url == null || url.isEmpty() || mEntries.contains(fileFor(url).getName())) {
+            deliver(url, callback == null ? null : Collections.singletonList(callback));
+            return;
+        }
+        boolean onItsWay;
+        synchronized (mDownloads) {
+            List<Callback> callbacks = mDownloads.get(url);
+            onItsWay = callbacks != null;
+            if (!onItsWay) {
+                callbacks = new ArrayList<>();
+                mDownloads.put(url, callbacks);
+            }
+            if (callback != null) {
+                callbacks.add(callback);
+            }
+        }
+        if (onItsWay) {
+            return;
+        }
+
+        //A FutureTask, so the callbacks are called even if a full queue drops the download
+        executor.execute(new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    download(url);
+                } catch (IOException e) {
+                    Log.d(LOG_TAG, "Unable to cache preview " + url + ": " + e.getMessage());
+                }
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                List<Callback> callbacks;
+                synchronized (mDownloads) {
+                    callbacks = mDownloads.remove(url);
+                }
+                deliver(url, callbacks);
+            }
+        });
+    }
+
+    private void deliver(final String url, final List<Callback> callbacks) {
+        if (callbacks == null || callbacks.isEmpty()) {
+            return;
+        }
+        final boolean cached = url != null && !url.isEmpty() && mEntries.contains(fileFor(url).getName());
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Callback callback : callbacks) {
+                    callback.onPreviewFetched(url, cached);
+                }
+            }
+        });
+    }
+
+    private void download(String url) throws IOException {
+        File file = fileFor(url);
+        if (file.exists()) {
+            mEntries.add(file.getName());
+            return;
+        }
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+
+        Response response = mOkHttpClient.newCall(new Request.Builder().url(url).build()).execute();
+        if (!response.isSuccessful()) {
+            response.body().close();
+            throw new IOException("Unexpected response " + response.code());
+        }
+
+        File tempFile = new File(mDirectory, file.getName() + TEMP_SUFFIX);
+        InputStream in = response.body().byteStream();
+        OutputStream out = new FileOutputStream(tempFile);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            out.close();
+            in.close();
+        }
+
+        //Only complete files become visible to the player
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Unable to store " + file);
+        }
+        mEntries.add(file.getName());
+
+        trimToSize();
+    }
+
+    /**
+     * Complete entries only: downloads in progress must not be deleted under their writer
+     */
+    private File[] listEntries() {
+        return mDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return !file.getName().endsWith(TEMP_SUFFIX);
+            }
+        });
+    }
+
+    private void trimToSize() {
+        File[] files = listEntries();
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= MAX_CACHE_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (size <= MAX_CACHE_BYTES) {
+                break;
+            }
+            long length = file.length();
+            mEntries.remove(file.getName());
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private File fileFor(String url) {
+        return new File(mDirectory, md5Hex(url));
+    }
+
+    private static String md5Hex(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(text.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(String.format("%02x", b & 0xff));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return String.valueOf(text.hashCode());
+        }
+    }
+}
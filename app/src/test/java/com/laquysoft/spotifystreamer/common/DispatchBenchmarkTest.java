@@ -0,0 +1,108 @@
+package com.laquysoft.spotifystreamer.common;
+
+import com.squareup.otto.Bus;
+import com.squareup.otto.Subscribe;
+import com.squareup.otto.ThreadEnforcer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Registers a subscriber and delivers events to it through MainThreadBus, which calls it
+ * through the dispatcher bus-compiler generates for it, and through Otto's reflective
+ * lookup and invocation.
+ */
+public class DispatchBenchmarkTest {
+
+    private static final int WARM_UP_ITERATIONS = 20000;
+    private static final int MEASURED_ITERATIONS = 200000;
+
+    /**
+     * Gets a generated dispatcher, like the app subscribers
+     */
+    public static class Listener {
+        int mCount;
+
+        @Subscribe
+        public void onProgress(Integer event) {
+            mCount++;
+        }
+
+        @Subscribe
+        public void onTrack(String event) {
+            mCount++;
+        }
+    }
+
+    private final MainThreadBus mIndexedBus = MainThreadBus.getInstance();
+    private final Bus mOttoBus = new Bus(ThreadEnforcer.ANY);
+    private final Listener mListener = new Listener();
+
+    @Test
+    public void generatedDispatcherRegistersFasterThanOtto() {
+        long indexedNanos = time(new Operation() {
+            @Override
+            public void run() {
+                mIndexedBus.register(mListener);
+                mIndexedBus.unregister(mListener);
+            }
+        });
+        long ottoNanos = time(new Operation() {
+            @Override
+            public void run() {
+                mOttoBus.register(mListener);
+                mOttoBus.unregister(mListener);
+            }
+        });
+
+        assertTrue("Generated " + indexedNanos + "ns, Otto " + ottoNanos + "ns", indexedNanos < ottoNanos);
+    }
+
+    @Test
+    public void generatedDispatcherDeliversFasterThanOtto() {
+        //Same event instance, the allocation free progress updates
+        final Integer progress = 1000;
+
+        mIndexedBus.register(mListener);
+        long indexedNanos;
+        try {
+            indexedNanos = time(new Operation() {
+                @Override
+                public void run() {
+                    mIndexedBus.post(progress);
+                }
+            });
+        } finally {
+            mIndexedBus.unregister(mListener);
+        }
+        assertEquals(WARM_UP_ITERATIONS + MEASURED_ITERATIONS, mListener.mCount);
+
+        mOttoBus.register(mListener);
+        long ottoNanos = time(new Operation() {
+            @Override
+            public void run() {
+                mOttoBus.post(progress);
+            }
+        });
+        assertEquals(2 * (WARM_UP_ITERATIONS + MEASURED_ITERATIONS), mListener.mCount);
+
+        assertTrue("Generated " + indexedNanos + "ns, Otto " + ottoNanos + "ns", indexedNanos < ottoNanos);
+    }
+
+    private interface Operation {
+        void run();
+    }
+
+    private static long time(Operation operation) {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            operation.run();
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,74 @@
+package com.laquysoft.spotifystreamer.common;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import kaaes.spotify.webapi.android.models.Image;
+
+import static org.junit.Assert.assertEquals;
+
+public class ImageSelectorTest {
+
+    //Spotify lists the variants biggest first
+    private static final List<Image> SQUARE = Arrays.asList(
+            image("640", 640, 640),
+            image("300", 300, 300),
+            image("64", 64, 64));
+
+    @Test
+    public void picksTheSmallestCoveringTheTarget() {
+        assertEquals("300", ImageSelector.select(SQUARE, 200));
+        assertEquals("300", ImageSelector.select(SQUARE, 300));
+        assertEquals("640", ImageSelector.select(SQUARE, 301));
+        assertEquals("64", ImageSelector.select(SQUARE, 48));
+    }
+
+    @Test
+    public void orderOfTheVariantsDoesNotMatter() {
+        List<Image> reversed = new ArrayList<>(SQUARE);
+        Collections.reverse(reversed);
+        assertEquals("300", ImageSelector.select(reversed, 200));
+        assertEquals("640", ImageSelector.select(reversed, 1000));
+    }
+
+    @Test
+    public void picksTheLargestWhenNoneCovers() {
+        assertEquals("640", ImageSelector.select(SQUARE, 1000));
+    }
+
+    @Test
+    public void shorterSideIsTheSize() {
+        List<Image> images = Arrays.asList(
+                image("wide", 1000, 200),
+                image("square", 320, 320));
+        assertEquals("square", ImageSelector.select(images, 300));
+    }
+
+    @Test
+    public void missingSizesFallBackToTheKnownSide() {
+        List<Image> images = Arrays.asList(
+                image("unknown", null, null),
+                image("widthOnly", 400, null),
+                image("small", 100, 100));
+        assertEquals("widthOnly", ImageSelector.select(images, 300));
+        assertEquals("unknown", ImageSelector.select(Collections.singletonList(image("unknown", null, null)), 300));
+    }
+
+    @Test
+    public void noImageIsAnEmptyUrl() {
+        assertEquals("", ImageSelector.select(null, 300));
+        assertEquals("", ImageSelector.select(Collections.<Image>emptyList(), 300));
+    }
+
+    private static Image image(String url, Integer width, Integer height) {
+        Image image = new Image();
+        image.url = url;
+        image.width = width;
+        image.height = height;
+        return image;
+    }
+}
@@ -0,0 +1,167 @@
+package com.laquysoft.spotifystreamer.common;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays the notified operations on a copy of the old list, it must end up equal to the
+ * new one. Items are "id:content" strings.
+ */
+public class ListDiffTest {
+
+    private static final ListDiff.Callback<String> CALLBACK = new ListDiff.Callback<String>() {
+        @Override
+        public boolean areItemsTheSame(String oldItem, String newItem) {
+            return id(oldItem).equals(id(newItem));
+        }
+
+        @Override
+        public boolean areContentsTheSame(String oldItem, String newItem) {
+            return oldItem.equals(newItem);
+        }
+    };
+
+    @Test
+    public void identicalListsHaveNoOperation() {
+        List<String> list = Arrays.asList("a:1", "b:1", "c:1");
+        ListDiff diff = ListDiff.calculate(list, new ArrayList<>(list), CALLBACK);
+        assertTrue(diff.isEmpty());
+        assertEquals(0, replay(diff, list, list).mOperations);
+    }
+
+    @Test
+    public void insertsAndRemovesAreSingleOperations() {
+        List<String> oldList = Arrays.asList("a:1", "b:1", "c:1", "d:1");
+        List<String> newList = Arrays.asList("a:1", "x:1", "c:1", "d:1", "e:1");
+        Recorder recorder = replay(ListDiff.calculate(oldList, newList, CALLBACK), oldList, newList);
+        //b removed, x and e inserted
+        assertEquals(3, recorder.mOperations);
+        assertEquals(0, recorder.mChanges);
+    }
+
+    @Test
+    public void changedContentIsASingleChange() {
+        List<String> oldList = Arrays.asList("a:1", "b:1", "c:1");
+        List<String> newList = Arrays.asList("a:1", "b:2", "c:1");
+        ListDiff diff = ListDiff.calculate(oldList, newList, CALLBACK);
+        assertFalse(diff.isEmpty());
+        Recorder recorder = replay(diff, oldList, newList);
+        assertEquals(1, recorder.mOperations);
+        assertEquals(1, recorder.mChanges);
+    }
+
+    @Test
+    public void movedItemIsRemovedAndInserted() {
+        List<String> oldList = Arrays.asList("a:1", "b:1", "c:1", "d:1");
+        List<String> newList = Arrays.asList("d:1", "a:1", "b:1", "c:1");
+        Recorder recorder = replay(ListDiff.calculate(oldList, newList, CALLBACK), oldList, newList);
+        assertEquals(2, recorder.mOperations);
+        assertEquals(0, recorder.mChanges);
+    }
+
+    @Test
+    public void emptyListsOnEitherSide() {
+        List<String> list = Arrays.asList("a:1", "b:1");
+        List<String> empty = Collections.emptyList();
+        assertEquals(2, replay(ListDiff.calculate(empty, list, CALLBACK), empty, list).mOperations);
+        assertEquals(2, replay(ListDiff.calculate(list, empty, CALLBACK), list, empty).mOperations);
+    }
+
+    @Test
+    public void randomEditsReplayToTheNewList() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            List<String> oldList = randomList(random);
+            List<String> newList = randomList(random);
+            replay(ListDiff.calculate(oldList, newList, CALLBACK), oldList, newList);
+        }
+    }
+
+    private static List<String> randomList(Random random) {
+        List<String> ids = new ArrayList<>(Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h"));
+        Collections.shuffle(ids, random);
+        List<String> list = new ArrayList<>();
+        for (String id : ids.subList(0, random.nextInt(ids.size() + 1))) {
+            list.add(id + ':' + random.nextInt(2));
+        }
+        return list;
+    }
+
+    private static Recorder replay(ListDiff diff, List<String> oldList, List<String> newList) {
+        Recorder recorder = new Recorder(oldList, newList);
+        RecyclerView.Adapter<RecyclerView.ViewHolder> adapter = new RecyclerView.Adapter<RecyclerView.ViewHolder>() {
+            @Override
+            public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+                return null;
+            }
+
+            @Override
+            public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            }
+
+            @Override
+            public int getItemCount() {
+                return 0;
+            }
+        };
+        adapter.registerAdapterDataObserver(recorder);
+        diff.dispatchUpdatesTo(adapter);
+        assertEquals(newList, recorder.mList);
+        return recorder;
+    }
+
+    private static String id(String item) {
+        return item.substring(0, item.indexOf(':'));
+    }
+
+    private static class Recorder extends RecyclerView.AdapterDataObserver {
+        final List<String> mList;
+        final List<String> mNewList;
+        int mOperations;
+        int mChanges;
+
+        Recorder(List<String> oldList, List<String> newList) {
+            mList = new ArrayList<>(oldList);
+            mNewList = newList;
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            for (int i = 0; i < itemCount; i++) {
+                //Everything before the insertion point already matches the new list
+                mList.add(positionStart + i, mNewList.get(positionStart + i));
+            }
+            mOperations++;
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            for (int i = 0; i < itemCount; i++) {
+                mList.remove(positionStart);
+            }
+            mOperations++;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            for (int i = 0; i < itemCount; i++) {
+                assertEquals(id(mNewList.get(positionStart + i)), id(mList.get(positionStart + i)));
+                mList.set(positionStart + i, mNewList.get(positionStart + i));
+            }
+            mOperations++;
+            mChanges++;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.laquysoft.spotifystreamer.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    private static final int CALLERS = 5;
+
+    private ExecutorService mExecutor;
+    private SingleFlight<String, String> mSingleFlight;
+    private final AtomicInteger mCalls = new AtomicInteger();
+    private final CountDownLatch mStarted = new CountDownLatch(1);
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    private final Callable<String> mBlockingCall = new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+            mCalls.incrementAndGet();
+            mStarted.countDown();
+            mRelease.await();
+            return "result";
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newCachedThreadPool();
+        mSingleFlight = new SingleFlight<>(mExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentCallersShareOneCall() throws Exception {
+        List<Caller> callers = startCallers(CALLERS);
+        mRelease.countDown();
+
+        for (Caller caller : callers) {
+            caller.join(1000);
+            assertEquals("result", caller.mResult.get());
+        }
+        assertEquals(1, mCalls.get());
+    }
+
+    @Test
+    public void interruptedCallerDoesNotCancelTheOthers() throws Exception {
+        List<Caller> callers = startCallers(CALLERS);
+        //The leader is the one that would have run the call before
+        Caller leader = callers.get(0);
+        leader.interrupt();
+        leader.join(1000);
+        assertTrue(leader.mError.get() instanceof CancellationException);
+
+        mRelease.countDown();
+        for (Caller caller : callers.subList(1, callers.size())) {
+            caller.join(1000);
+            assertEquals("result", caller.mResult.get());
+        }
+        assertEquals(1, mCalls.get());
+    }
+
+    @Test
+    public void runtimeExceptionsAreRethrownAsIs() {
+        final IllegalStateException error = new IllegalStateException();
+        try {
+            mSingleFlight.execute("key", new Callable<String>() {
+                @Override
+                public String call() {
+                    throw error;
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(error, e);
+        }
+    }
+
+    @Test
+    public void checkedExceptionsAreWrapped() {
+        final IOException error = new IOException();
+        try {
+            mSingleFlight.execute("key", new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    throw error;
+                }
+            });
+            fail();
+        } catch (RuntimeException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void keyIsReleasedOnceDone() {
+        Callable<String> counting = new Callable<String>() {
+            @Override
+            public String call() {
+                return "call" + mCalls.incrementAndGet();
+            }
+        };
+        assertEquals("call1", mSingleFlight.execute("key", counting));
+        assertEquals("call2", mSingleFlight.execute("key", counting));
+    }
+
+    @Test
+    public void keyIsReleasedWhenTheExecutorRejects() {
+        SingleFlight<String, String> rejecting = new SingleFlight<>(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        for (int i = 0; i < 2; i++) {
+            try {
+                rejecting.execute("key", mBlockingCall);
+                fail();
+            } catch (RejectedExecutionException expected) {
+                //The second caller is rejected too, instead of waiting on a task that never runs
+            }
+        }
+        assertEquals(0, mCalls.get());
+    }
+
+    @Test
+    public void callersJoinAPrefetchInFlight() throws Exception {
+        Future<String> prefetch = mSingleFlight.prefetch("key", mBlockingCall, mExecutor);
+        assertTrue(mStarted.await(1, TimeUnit.SECONDS));
+        assertNull(mSingleFlight.prefetch("key", mBlockingCall, mExecutor));
+
+        List<Caller> callers = startCallers(CALLERS);
+        mRelease.countDown();
+        for (Caller caller : callers) {
+            caller.join(1000);
+            assertEquals("result", caller.mResult.get());
+        }
+        assertEquals("result", prefetch.get());
+        assertEquals(1, mCalls.get());
+    }
+
+    @Test
+    public void cancelledPrefetchStopsTheCallAndCallersMakeTheirOwn() throws Exception {
+        final AtomicInteger interrupted = new AtomicInteger();
+        Callable<String> call = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                try {
+                    return mBlockingCall.call();
+                } catch (InterruptedException e) {
+                    interrupted.incrementAndGet();
+                    throw e;
+                }
+            }
+        };
+        Future<String> prefetch = mSingleFlight.prefetch("key", call, mExecutor);
+        assertTrue(mStarted.await(1, TimeUnit.SECONDS));
+        Caller caller = new Caller();
+        caller.start();
+        while (caller.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+
+        prefetch.cancel(true);
+        long deadline = System.currentTimeMillis() + 1000;
+        while (mCalls.get() < 2 || interrupted.get() < 1) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        mRelease.countDown();
+        caller.join(1000);
+        assertEquals("result", caller.mResult.get());
+        assertEquals(2, mCalls.get());
+    }
+
+    @Test
+    public void callersDoNotWaitForAQueuedPrefetch() {
+        final List<Runnable> queued = new ArrayList<>();
+        Callable<String> counting = new Callable<String>() {
+            @Override
+            public String call() {
+                return "call" + mCalls.incrementAndGet();
+            }
+        };
+        Future<String> prefetch = mSingleFlight.prefetch("key", counting, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+
+        assertEquals("call1", mSingleFlight.execute("key", counting));
+        assertTrue(prefetch.isCancelled());
+        //Its turn comes eventually, the call is not made twice
+        queued.get(0).run();
+        assertEquals(1, mCalls.get());
+    }
+
+    /**
+     * Starts count callers for the same key, returns once all of them wait on the call
+     */
+    private List<Caller> startCallers(int count) throws InterruptedException {
+        List<Caller> callers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Caller caller = new Caller();
+            caller.start();
+            callers.add(caller);
+            if (i == 0) {
+                assertTrue(mStarted.await(1, TimeUnit.SECONDS));
+            }
+        }
+        for (Caller caller : callers) {
+            long deadline = System.currentTimeMillis() + 1000;
+            while (caller.getState() != Thread.State.WAITING) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+        }
+        return callers;
+    }
+
+    private class Caller extends Thread {
+        final AtomicReference<String> mResult = new AtomicReference<>();
+        final AtomicReference<Throwable> mError = new AtomicReference<>();
+
+        @Override
+        public void run() {
+            try {
+                mResult.set(mSingleFlight.execute("key", mBlockingCall));
+            } catch (Throwable e) {
+                mError.set(e);
+            }
+        }
+    }
+}
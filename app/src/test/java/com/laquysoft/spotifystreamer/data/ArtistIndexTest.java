@@ -0,0 +1,121 @@
+package com.laquysoft.spotifystreamer.data;
+
+import com.laquysoft.spotifystreamer.model.ParcelableSpotifyObject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ArtistIndexTest {
+
+    private ArtistIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = new ArtistIndex();
+        mIndex.addAll(Arrays.asList(
+                artist("1", "The Rolling Stones"),
+                artist("2", "Radiohead"),
+                artist("3", "Rage Against The Machine"),
+                artist("4", "Stone Sour")));
+    }
+
+    @Test
+    public void matchesThePrefixOfTheFullName() {
+        assertEquals(ids("2", "3"), ids(mIndex.findByPrefix("ra", 10)));
+        assertEquals(ids("3"), ids(mIndex.findByPrefix("rage against", 10)));
+    }
+
+    @Test
+    public void matchesThePrefixOfLaterWords() {
+        assertEquals(ids("1", "4"), ids(mIndex.findByPrefix("stone", 10)));
+        assertEquals(ids("3"), ids(mIndex.findByPrefix("machine", 10)));
+    }
+
+    @Test
+    public void ignoresCaseAndSurroundingSpaces() {
+        assertEquals(ids("2"), ids(mIndex.findByPrefix("  RADIO ", 10)));
+    }
+
+    @Test
+    public void emptyOrUnknownPrefixFindsNothing() {
+        assertTrue(mIndex.findByPrefix("", 10).isEmpty());
+        assertTrue(mIndex.findByPrefix("   ", 10).isEmpty());
+        assertTrue(mIndex.findByPrefix("zz", 10).isEmpty());
+    }
+
+    @Test
+    public void stopsAtTheLimit() {
+        assertEquals(1, mIndex.findByPrefix("ra", 1).size());
+        assertTrue(mIndex.findByPrefix("ra", 0).isEmpty());
+    }
+
+    @Test
+    public void artistMatchingTwiceIsReturnedOnce() {
+        //"the" matches both the full name and the fourth word
+        List<ParcelableSpotifyObject> found = mIndex.findByPrefix("the", 10);
+        assertEquals(ids("1", "3"), ids(found));
+    }
+
+    @Test
+    public void addingAgainRefreshesTheArtist() {
+        ParcelableSpotifyObject renamed = artist("2", "Radiohead Live");
+        mIndex.addAll(Collections.singletonList(renamed));
+
+        assertEquals(4, mIndex.size());
+        assertSame(renamed, mIndex.findByPrefix("live", 10).get(0));
+    }
+
+    @Test
+    public void artistsWithoutIdOrNameAreSkipped() {
+        mIndex.addAll(Arrays.asList(artist(null, "Nameless"), artist("5", null)));
+        assertEquals(4, mIndex.size());
+        assertTrue(mIndex.findByPrefix("nameless", 10).isEmpty());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedArtists() {
+        //Looking an artist up makes it the most recently used one
+        mIndex.findByPrefix("radiohead", 10);
+
+        List<ParcelableSpotifyObject> others = new ArrayList<>();
+        for (int i = 0; i < ArtistIndex.MAX_ARTISTS - 1; i++) {
+            others.add(artist("other" + i, "Other " + i));
+        }
+        mIndex.addAll(others);
+
+        assertEquals(ArtistIndex.MAX_ARTISTS, mIndex.size());
+        assertEquals(ids("2"), ids(mIndex.findByPrefix("radiohead", 10)));
+        assertTrue(mIndex.findByPrefix("rolling", 10).isEmpty());
+        assertTrue(mIndex.findByPrefix("rage", 10).isEmpty());
+        assertTrue(mIndex.findByPrefix("sour", 10).isEmpty());
+    }
+
+    private static List<String> ids(String... ids) {
+        return Arrays.asList(ids);
+    }
+
+    /**
+     * Sorted, results come in index order
+     */
+    private static List<String> ids(List<ParcelableSpotifyObject> artists) {
+        List<String> ids = new ArrayList<>();
+        for (ParcelableSpotifyObject artist : artists) {
+            ids.add(artist.mFatherName);
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static ParcelableSpotifyObject artist(String id, String name) {
+        return new ParcelableSpotifyObject(name, id, "", "", "", "");
+    }
+}
@@ -0,0 +1,175 @@
+package com.laquysoft.spotifystreamer.modules;
+
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.net.ServerSocketFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Api-like calls against a local mock server, through the app shared pooled client and
+ * through a new client per call as the app did before, each with its own connection.
+ */
+public class SharedClientBenchmarkTest {
+
+    private static final int WARM_UP_CALLS = 20;
+    private static final int MEASURED_CALLS = 200;
+    private static final String BODY = "{\"artists\":{\"items\":[]}}";
+
+    private MockWebServer mServer;
+    private ExecutorService mHttpExecutor;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.setServerSocketFactory(new NoDelayServerSocketFactory());
+        for (int i = 0; i < 2 * (WARM_UP_CALLS + MEASURED_CALLS); i++) {
+            mServer.enqueue(new MockResponse().setBody(BODY));
+        }
+        mServer.play();
+        mHttpExecutor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mHttpExecutor.shutdownNow();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void sharedClientReusesOneConnection() throws Exception {
+        OkHttpClient sharedClient = SpotifyServiceModule.newPooledClient(mHttpExecutor);
+
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            call(sharedClient);
+        }
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            //Every request after the first one goes over the same connection
+            assertEquals(i, mServer.takeRequest().getSequenceNumber());
+        }
+    }
+
+    @Test
+    public void clientPerCallOpensAConnectionPerCall() throws Exception {
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            call(newClientPerCall());
+        }
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            //First request of a fresh connection every time
+            assertEquals(0, mServer.takeRequest().getSequenceNumber());
+        }
+    }
+
+    @Test
+    public void sharedClientIsFasterThanClientPerCall() throws Exception {
+        final OkHttpClient sharedClient = SpotifyServiceModule.newPooledClient(mHttpExecutor);
+
+        long sharedNanos = time(new ClientSource() {
+            @Override
+            public OkHttpClient get() {
+                return sharedClient;
+            }
+        });
+        long perCallNanos = time(new ClientSource() {
+            @Override
+            public OkHttpClient get() {
+                return newClientPerCall();
+            }
+        });
+
+        assertEquals(2 * (WARM_UP_CALLS + MEASURED_CALLS), mServer.getRequestCount());
+        assertTrue("Shared " + sharedNanos + "ns, per call " + perCallNanos + "ns", sharedNanos < perCallNanos);
+    }
+
+    /**
+     * Without a pool of its own, a new client would still reuse the connections of the
+     * process wide default pool
+     */
+    private static OkHttpClient newClientPerCall() {
+        OkHttpClient okHttpClient = new OkHttpClient();
+        okHttpClient.setConnectionPool(new ConnectionPool(0, 0));
+        return okHttpClient;
+    }
+
+    /**
+     * The mock server writes headers and body apart, on a kept alive connection Nagle would
+     * hold the body back for a delayed ack, as real servers don't
+     */
+    private static class NoDelayServerSocketFactory extends ServerSocketFactory {
+
+        @Override
+        public ServerSocket createServerSocket() throws IOException {
+            return new NoDelayServerSocket();
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            return createServerSocket(port, 50, null);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+            return createServerSocket(port, backlog, null);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog, InetAddress address) throws IOException {
+            ServerSocket serverSocket = new NoDelayServerSocket();
+            serverSocket.bind(new InetSocketAddress(address, port), backlog);
+            return serverSocket;
+        }
+    }
+
+    private static class NoDelayServerSocket extends ServerSocket {
+
+        NoDelayServerSocket() throws IOException {
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            Socket socket = super.accept();
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+    }
+
+    private interface ClientSource {
+        OkHttpClient get();
+    }
+
+    private long time(ClientSource clients) throws IOException {
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            call(clients.get());
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            call(clients.get());
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void call(OkHttpClient client) throws IOException {
+        Request request = new Request.Builder().url(mServer.getUrl("/v1/search")).build();
+        Response response = client.newCall(request).execute();
+        //Reading the whole body hands the connection back to the pool
+        assertEquals(BODY, response.body().string());
+    }
+}
@@ -0,0 +1,174 @@
+package com.laquysoft.spotifystreamer.playback;
+
+import com.laquysoft.spotifystreamer.model.ParcelableSpotifyObject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PlayQueueTest {
+
+    private PlayQueue mQueue;
+    private List<ParcelableSpotifyObject> mTracks;
+
+    @Before
+    public void setUp() {
+        mQueue = new PlayQueue();
+        mTracks = tracks(5);
+        mQueue.setTracks(mTracks);
+    }
+
+    @Test
+    public void nothingIsCurrentAfterSetTracks() {
+        assertEquals(PlayQueue.NO_POSITION, mQueue.getCurrentPosition());
+        assertNull(mQueue.getCurrent());
+        assertEquals(PlayQueue.NO_POSITION, mQueue.getNextPosition());
+        assertEquals(PlayQueue.NO_POSITION, mQueue.getPreviousPosition());
+    }
+
+    @Test
+    public void moveToOutOfRangeKeepsTheCursor() {
+        mQueue.moveTo(2);
+        assertNull(mQueue.moveTo(5));
+        assertNull(mQueue.moveTo(-1));
+        assertEquals(2, mQueue.getCurrentPosition());
+    }
+
+    @Test
+    public void sequentialStopsAtBothEnds() {
+        assertSame(mTracks.get(0), mQueue.moveTo(0));
+        assertEquals(PlayQueue.NO_POSITION, mQueue.getPreviousPosition());
+        assertEquals(1, mQueue.getNextPosition());
+
+        mQueue.moveTo(4);
+        assertEquals(3, mQueue.getPreviousPosition());
+        assertEquals(PlayQueue.NO_POSITION, mQueue.getNextPosition());
+        assertEquals(PlayQueue.NO_POSITION, mQueue.getAutoAdvancePosition());
+    }
+
+    @Test
+    public void repeatAllWrapsAround() {
+        mQueue.setMode(PlayQueue.MODE_REPEAT_ALL);
+        mQueue.moveTo(4);
+        assertEquals(0, mQueue.getNextPosition());
+        assertEquals(0, mQueue.getAutoAdvancePosition());
+
+        mQueue.moveTo(0);
+        assertEquals(4, mQueue.getPreviousPosition());
+        assertEquals(3, mQueue.peek(-2));
+        assertEquals(0, mQueue.peek(5));
+    }
+
+    @Test
+    public void repeatOneReplaysOnlyOnCompletion() {
+        mQueue.setMode(PlayQueue.MODE_REPEAT_ONE);
+        mQueue.moveTo(2);
+        assertEquals(2, mQueue.getAutoAdvancePosition());
+        assertEquals(3, mQueue.getNextPosition());
+        assertEquals(1, mQueue.getPreviousPosition());
+    }
+
+    @Test
+    public void nextModeCyclesThroughEveryMode() {
+        int mode = PlayQueue.MODE_SEQUENTIAL;
+        for (int i = 0; i < 4; i++) {
+            mode = PlayQueue.nextMode(mode);
+        }
+        assertEquals(PlayQueue.MODE_SEQUENTIAL, mode);
+        assertEquals(PlayQueue.MODE_SHUFFLE, PlayQueue.nextMode(PlayQueue.MODE_REPEAT_ALL));
+    }
+
+    @Test
+    public void duplicateTracksAreAddressedByPosition() {
+        ParcelableSpotifyObject track = track("same");
+        mQueue.setTracks(Arrays.asList(track, track, track));
+        mQueue.moveTo(1);
+        assertEquals(1, mQueue.getCurrentPosition());
+        assertEquals(2, mQueue.getNextPosition());
+        assertEquals(0, mQueue.getPreviousPosition());
+        assertSame(track, mQueue.getCurrent());
+    }
+
+    @Test
+    public void shuffleIsAPermutationStartingFromCurrent() {
+        mQueue.setTracks(tracks(20));
+        mQueue.setMode(PlayQueue.MODE_SHUFFLE);
+        mQueue.moveTo(7);
+
+        assertPermutationFrom(7, 20);
+        assertEquals(PlayQueue.NO_POSITION, mQueue.getPreviousPosition());
+    }
+
+    @Test
+    public void shuffleNavigatesBackAndForth() {
+        mQueue.setTracks(tracks(20));
+        mQueue.setMode(PlayQueue.MODE_SHUFFLE);
+        mQueue.moveTo(3);
+
+        int next = mQueue.getNextPosition();
+        mQueue.moveTo(next);
+        assertEquals(3, mQueue.getPreviousPosition());
+        mQueue.moveTo(3);
+        assertEquals(next, mQueue.getNextPosition());
+    }
+
+    @Test
+    public void shuffleJumpStartsANewShuffleFromThere() {
+        mQueue.setTracks(tracks(20));
+        mQueue.setMode(PlayQueue.MODE_SHUFFLE);
+        mQueue.moveTo(3);
+        int far = mQueue.peek(10);
+        mQueue.moveTo(far);
+
+        assertPermutationFrom(far, 20);
+        assertEquals(PlayQueue.NO_POSITION, mQueue.getPreviousPosition());
+    }
+
+    @Test
+    public void leavingShuffleRestoresQueueOrder() {
+        mQueue.setMode(PlayQueue.MODE_SHUFFLE);
+        mQueue.moveTo(2);
+        mQueue.setMode(PlayQueue.MODE_SEQUENTIAL);
+        assertEquals(3, mQueue.getNextPosition());
+        assertEquals(1, mQueue.getPreviousPosition());
+    }
+
+    /**
+     * Walks the play order from position, every entry must come up exactly once
+     */
+    private void assertPermutationFrom(int position, int size) {
+        boolean[] seen = new boolean[size];
+        int count = 0;
+        for (int offset = 0; ; offset++) {
+            int next = mQueue.peek(offset);
+            if (next == PlayQueue.NO_POSITION) {
+                break;
+            }
+            assertFalse(seen[next]);
+            seen[next] = true;
+            count++;
+        }
+        assertEquals(position, mQueue.peek(0));
+        assertEquals(size, count);
+    }
+
+    private static List<ParcelableSpotifyObject> tracks(int count) {
+        List<ParcelableSpotifyObject> tracks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tracks.add(track("track" + i));
+        }
+        return tracks;
+    }
+
+    private static ParcelableSpotifyObject track(String id) {
+        return new ParcelableSpotifyObject(id, id, "album", "artist", "", "", "http://preview/" + id);
+    }
+}
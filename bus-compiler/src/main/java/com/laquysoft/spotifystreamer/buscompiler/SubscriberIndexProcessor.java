@@ -0,0 +1,187 @@
+package com.laquysoft.spotifystreamer.buscompiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates, for every class with Otto {@code @Subscribe} methods, a
+ * {@code <Target>$$SubscriberDispatcher} calling those methods directly, so MainThreadBus
+ * can skip Otto's reflective handler lookup and invocation.
+ * <p/>
+ * Classes that also declare {@code @Produce} methods, or that are not reachable from their
+ * own package, are left to Otto.
+ */
+@SupportedAnnotationTypes({
+        SubscriberIndexProcessor.SUBSCRIBE_ANNOTATION,
+        SubscriberIndexProcessor.PRODUCE_ANNOTATION
+})
+public class SubscriberIndexProcessor extends AbstractProcessor {
+
+    static final String SUBSCRIBE_ANNOTATION = "com.squareup.otto.Subscribe";
+    static final String PRODUCE_ANNOTATION = "com.squareup.otto.Produce";
+
+    private static final String DISPATCHER_INTERFACE = "com.laquysoft.spotifystreamer.common.SubscriberDispatcher";
+    private static final String DISPATCHER_SUFFIX = "$$SubscriberDispatcher";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Map<TypeElement, List<ExecutableElement>> subscribers = new LinkedHashMap<>();
+        Set<TypeElement> producers = new HashSet<>();
+
+        for (TypeElement annotation : annotations) {
+            boolean subscribe = annotation.getQualifiedName().contentEquals(SUBSCRIBE_ANNOTATION);
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.METHOD) {
+                    continue;
+                }
+                TypeElement type = (TypeElement) element.getEnclosingElement();
+                if (!subscribe) {
+                    producers.add(type);
+                    continue;
+                }
+                ExecutableElement method = (ExecutableElement) element;
+                if (!isDispatchable(method)) {
+                    //Otto reports the exact problem at register time
+                    producers.add(type);
+                    continue;
+                }
+                List<ExecutableElement> methods = subscribers.get(type);
+                if (methods == null) {
+                    methods = new ArrayList<>();
+                    subscribers.put(type, methods);
+                }
+                methods.add(method);
+            }
+        }
+
+        for (Map.Entry<TypeElement, List<ExecutableElement>> entry : subscribers.entrySet()) {
+            TypeElement type = entry.getKey();
+            if (producers.contains(type) || !isReachable(type)) {
+                continue;
+            }
+            try {
+                writeDispatcher(type, entry.getValue());
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Unable to write the subscriber dispatcher: " + e.getMessage(), type);
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDispatchable(ExecutableElement method) {
+        Set<Modifier> modifiers = method.getModifiers();
+        return modifiers.contains(Modifier.PUBLIC)
+                && !modifiers.contains(Modifier.STATIC)
+                && method.getParameters().size() == 1
+                && method.getParameters().get(0).asType().getKind() == TypeKind.DECLARED;
+    }
+
+    private static boolean isReachable(TypeElement type) {
+        Element element = type;
+        while (element instanceof TypeElement) {
+            TypeElement typeElement = (TypeElement) element;
+            if (typeElement.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            if (typeElement.getNestingKind() == NestingKind.MEMBER
+                    && !typeElement.getModifiers().contains(Modifier.STATIC)
+                    && typeElement != type) {
+                return false;
+            }
+            if (typeElement.getNestingKind() == NestingKind.LOCAL
+                    || typeElement.getNestingKind() == NestingKind.ANONYMOUS) {
+                return false;
+            }
+            element = typeElement.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private void writeDispatcher(TypeElement type, List<ExecutableElement> methods) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String className = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1))
+                + DISPATCHER_SUFFIX;
+        String targetName = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+
+        Set<String> eventTypes = new LinkedHashSet<>();
+        for (ExecutableElement method : methods) {
+            eventTypes.add(eventTypeOf(method));
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append("// Generated by SubscriberIndexProcessor, do not edit\n");
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("public final class ").append(className)
+                .append(" implements ").append(DISPATCHER_INTERFACE).append('<').append(targetName).append("> {\n\n");
+
+        source.append("    private static final Class<?>[] EVENT_TYPES = {");
+        boolean first = true;
+        for (String eventType : eventTypes) {
+            source.append(first ? "\n" : ",\n").append("            ").append(eventType).append(".class");
+            first = false;
+        }
+        source.append("\n    };\n\n");
+
+        source.append("    @Override\n");
+        source.append("    public Class<?>[] getEventTypes() {\n");
+        source.append("        return EVENT_TYPES;\n");
+        source.append("    }\n\n");
+
+        source.append("    @Override\n");
+        source.append("    public void dispatch(").append(targetName).append(" target, Object event) {\n");
+        for (ExecutableElement method : methods) {
+            String eventType = eventTypeOf(method);
+            source.append("        if (event instanceof ").append(eventType).append(") {\n");
+            source.append("            target.").append(method.getSimpleName())
+                    .append("((").append(eventType).append(") event);\n");
+            source.append("        }\n");
+        }
+        source.append("    }\n");
+        source.append("}\n");
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                packageName.isEmpty() ? className : packageName + '.' + className, type);
+        Writer writer = file.openWriter();
+        try {
+            writer.write(source.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private String eventTypeOf(ExecutableElement method) {
+        VariableElement parameter = method.getParameters().get(0);
+        return processingEnv.getTypeUtils().erasure(parameter.asType()).toString();
+    }
+}
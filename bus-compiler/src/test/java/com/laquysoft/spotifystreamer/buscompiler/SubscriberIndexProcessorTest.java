@@ -0,0 +1,127 @@
+package com.laquysoft.spotifystreamer.buscompiler;
+
+import com.laquysoft.spotifystreamer.common.SubscriberDispatcher;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SubscriberIndexProcessorTest {
+
+    private static final String LISTENER = ""
+            + "package test;\n"
+            + "import com.squareup.otto.Subscribe;\n"
+            + "import java.util.ArrayList;\n"
+            + "import java.util.List;\n"
+            + "public class Listener {\n"
+            + "    public final List<Object> received = new ArrayList<>();\n"
+            + "    @Subscribe public void onText(String event) { received.add(event); }\n"
+            + "    @Subscribe public void onNumber(Number event) { received.add(event); }\n"
+            + "    public void notASubscriber(String event) { received.add(\"wrong\"); }\n"
+            + "}\n";
+
+    @Test
+    public void generatesADispatcherCallingEveryHandler() throws Exception {
+        TestCompiler compiler = TestCompiler.compile(TestCompiler.source("test.Listener", LISTENER));
+        assertTrue(compiler.generated("test.Listener$$SubscriberDispatcher"));
+
+        ClassLoader classLoader = compiler.classLoader();
+        Object listener = classLoader.loadClass("test.Listener").newInstance();
+        SubscriberDispatcher<Object> dispatcher = dispatcher(classLoader, "test.Listener$$SubscriberDispatcher");
+        assertArrayEquals(new Class<?>[]{String.class, Number.class}, dispatcher.getEventTypes());
+
+        dispatcher.dispatch(listener, "text");
+        //Handlers take subclasses of their event type, as with Otto
+        dispatcher.dispatch(listener, 42);
+        dispatcher.dispatch(listener, new Object());
+        assertEquals(Arrays.<Object>asList("text", 42), received(listener));
+    }
+
+    @Test
+    public void nestedClassesUseTheirBinaryName() throws Exception {
+        TestCompiler compiler = TestCompiler.compile(TestCompiler.source("test.Outer", ""
+                + "package test;\n"
+                + "import com.squareup.otto.Subscribe;\n"
+                + "public class Outer {\n"
+                + "    public static class Nested {\n"
+                + "        @Subscribe public void onText(String event) {}\n"
+                + "    }\n"
+                + "    public class Inner {\n"
+                + "        @Subscribe public void onText(String event) {}\n"
+                + "    }\n"
+                + "}\n"));
+
+        assertTrue(compiler.generated("test.Outer$Nested$$SubscriberDispatcher"));
+        assertEquals(1, dispatcher(compiler.classLoader(), "test.Outer$Nested$$SubscriberDispatcher")
+                .getEventTypes().length);
+        //Handlers of an inner class instance are called without its outer instance
+        assertTrue(compiler.generated("test.Outer$Inner$$SubscriberDispatcher"));
+    }
+
+    @Test
+    public void classesWithProducersAreLeftToOtto() throws Exception {
+        TestCompiler compiler = TestCompiler.compile(TestCompiler.source("test.Producer", ""
+                + "package test;\n"
+                + "import com.squareup.otto.Produce;\n"
+                + "import com.squareup.otto.Subscribe;\n"
+                + "public class Producer {\n"
+                + "    @Subscribe public void onText(String event) {}\n"
+                + "    @Produce public Number produce() { return 0; }\n"
+                + "}\n"));
+
+        assertFalse(compiler.generated("test.Producer$$SubscriberDispatcher"));
+    }
+
+    @Test
+    public void unreachableClassesAreLeftToOtto() throws Exception {
+        TestCompiler compiler = TestCompiler.compile(TestCompiler.source("test.Outer", ""
+                + "package test;\n"
+                + "import com.squareup.otto.Subscribe;\n"
+                + "public class Outer {\n"
+                + "    private static class Hidden {\n"
+                + "        @Subscribe public void onText(String event) {}\n"
+                + "        public static class Nested {\n"
+                + "            @Subscribe public void onText(String event) {}\n"
+                + "        }\n"
+                + "    }\n"
+                + "    Object anonymous = new Object() {\n"
+                + "        @Subscribe public void onText(String event) {}\n"
+                + "    };\n"
+                + "}\n"));
+
+        assertFalse(compiler.generated("test.Outer$Hidden$$SubscriberDispatcher"));
+        assertFalse(compiler.generated("test.Outer$Hidden$Nested$$SubscriberDispatcher"));
+        assertFalse(compiler.generated("test.Outer$1$$SubscriberDispatcher"));
+    }
+
+    @Test
+    public void invalidHandlersLeaveTheClassToOtto() throws Exception {
+        TestCompiler compiler = TestCompiler.compile(TestCompiler.source("test.Invalid", ""
+                + "package test;\n"
+                + "import com.squareup.otto.Subscribe;\n"
+                + "public class Invalid {\n"
+                + "    @Subscribe public void onText(String event) {}\n"
+                + "    @Subscribe void onNumber(Number event) {}\n"
+                + "}\n"));
+
+        //Otto reports the invalid handler when the class registers
+        assertFalse(compiler.generated("test.Invalid$$SubscriberDispatcher"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SubscriberDispatcher<Object> dispatcher(ClassLoader classLoader, String className)
+            throws Exception {
+        return (SubscriberDispatcher<Object>) classLoader.loadClass(className).newInstance();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> received(Object listener) throws Exception {
+        return (List<Object>) listener.getClass().getField("received").get(listener);
+    }
+}
@@ -0,0 +1,101 @@
+package com.laquysoft.spotifystreamer.buscompiler;
+
+import com.laquysoft.spotifystreamer.common.SubscriberDispatcher;
+import com.squareup.otto.Subscribe;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles in-memory sources with SubscriberIndexProcessor into a temporary directory, so
+ * tests can look at the generated sources and load the compiled classes.
+ */
+final class TestCompiler {
+
+    private final File mGeneratedDirectory;
+    private final File mClassesDirectory;
+
+    private TestCompiler(File generatedDirectory, File classesDirectory) {
+        mGeneratedDirectory = generatedDirectory;
+        mClassesDirectory = classesDirectory;
+    }
+
+    static JavaFileObject source(String className, String code) {
+        final String content = code;
+        return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return content;
+            }
+        };
+    }
+
+    /**
+     * Fails with the compiler diagnostics if the sources don't compile
+     */
+    static TestCompiler compile(JavaFileObject... sources) throws IOException {
+        File root = Files.createTempDirectory("bus-compiler").toFile();
+        File generatedDirectory = new File(root, "generated");
+        File classesDirectory = new File(root, "classes");
+        if (!generatedDirectory.mkdirs() || !classesDirectory.mkdirs()) {
+            throw new IOException("Unable to create the output directories in " + root);
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        try {
+            fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singleton(generatedDirectory));
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(classesDirectory));
+            //What the app compiles against: Otto and the dispatcher interface
+            fileManager.setLocation(StandardLocation.CLASS_PATH,
+                    Arrays.asList(locationOf(Subscribe.class), locationOf(SubscriberDispatcher.class)));
+
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+                    null, null, Arrays.asList(sources));
+            task.setProcessors(Collections.singleton(new SubscriberIndexProcessor()));
+            if (!task.call()) {
+                throw new AssertionError("Compilation failed: " + diagnostics.getDiagnostics());
+            }
+        } finally {
+            fileManager.close();
+        }
+        return new TestCompiler(generatedDirectory, classesDirectory);
+    }
+
+    boolean generated(String className) {
+        return new File(mGeneratedDirectory, className.replace('.', '/') + ".java").isFile();
+    }
+
+    /**
+     * Loads the compiled classes, the annotations and the dispatcher interface are shared
+     * with the test
+     */
+    ClassLoader classLoader() throws IOException {
+        return new URLClassLoader(new URL[]{mClassesDirectory.toURI().toURL()}, getClass().getClassLoader());
+    }
+
+    private static File locationOf(Class<?> type) {
+        try {
+            return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}